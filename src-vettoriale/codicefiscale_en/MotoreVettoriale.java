@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Checks columns of fiscal codes with the Vector API (jdk.incubator.vector), loaded by {@link VerificaControllo} only when it can run.
+ * Every vector holds 2 or more whole codes, one byte per lane: the value of every lane is computed on all of the lanes at once,
+ * then the 16 lanes of every code are summed in 4 steps (pairs, groups of 4, 8 and 16), keeping the partial sums modulo 26 so that they always fit in a byte.
+ * Only the common case is vectorized: when a vector contains a wrong code (or a character that isn't a letter or digit) its codes are checked again by the scalar loop.
+ * The table of odd positions can't be read with a shuffle (turning lanes into a shuffle isn't a vector instruction on Java 17),
+ * so it's written as 2*value plus a correction that changes only at 14 values: one compare and one add for every change.
+ * This class is compiled separately (Java 17) and shipped in CodiceFiscale-vettoriale.jar, so the rest of the library stays Java 11.
+ * @author Pietro P.
+ */
+final class MotoreVettoriale implements VerificaControllo.Motore {
+    
+    private static final VectorSpecies<Byte> SPECIE = ByteVector.SPECIES_PREFERRED;
+    private static final int LUNGHEZZA = CodiceFiscale.LUNGHEZZA;
+    private static final int CODICIPERVETTORE = SPECIE.length() / LUNGHEZZA; //whole codes in a vector
+    
+    //the constants are static final fields, otherwise the JIT compiler doesn't turn the operations into vector instructions
+    private static final ByteVector ZERO = ByteVector.zero(SPECIE);
+    private static final VectorMask<Byte> POSIZIONIPARI = VectorMask.fromLong(SPECIE, corsie(1, 3, 5, 7, 9, 11, 13)); //lanes of the characters in even position (the first one is in position 1)
+    private static final VectorMask<Byte> CONTROLLO = VectorMask.fromLong(SPECIE, corsie(Segmenti.CONTROLLO)); //lanes of the control characters
+    private static final VectorMask<Byte> ALTRECORSIE = VectorMask.fromLong(SPECIE, corsie(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15)); //every lane except the first of every code
+    private static final VectorShuffle<Byte> AVANTI1 = spostamento(1); //every lane takes the value of the next one
+    private static final VectorShuffle<Byte> AVANTI2 = spostamento(2);
+    private static final VectorShuffle<Byte> AVANTI4 = spostamento(4);
+    private static final VectorShuffle<Byte> AVANTI8 = spostamento(8);
+    private static final VectorShuffle<Byte> AVANTICONTROLLO = spostamento(Segmenti.CONTROLLO); //moves every control character to the first lane of its code
+    
+    /**
+     * Checks that the vectors are big enough, and that the computed values of odd positions are the same as the table
+     * @throws UnsupportedOperationException if the vectors can't hold at least 2 codes
+     */
+    MotoreVettoriale() {
+        
+        if(CODICIPERVETTORE < 2) {
+            throw new UnsupportedOperationException("Vettori troppo piccoli: " + SPECIE);
+        }
+        
+        byte[] valori = new byte[SPECIE.length()];
+        for (int i=0; i<26; i++) {
+            valori[i] = (byte)i;
+        }
+        dispari(ByteVector.fromArray(SPECIE, valori, 0)).intoArray(valori, 0);
+        for (int i=0; i<26; i++) {
+            if(valori[i] != Segmenti.CHARDISPARI[i]) {
+                throw new IllegalStateException("Valori delle posizioni dispari errati.");
+            }
+        }
+    }
+    
+    @Override
+    public int verifica(byte[] codici, int da, int a, boolean[] esiti) {
+        
+        int corretti = 0;
+        int i = da;
+        
+        for (; i+CODICIPERVETTORE <= a; i+=CODICIPERVETTORE) {
+            
+            ByteVector caratteri = ByteVector.fromArray(SPECIE, codici, i*LUNGHEZZA);
+            
+            //digits count as the corresponding letters (0 = A, 1 = B, ...): every letter or digit becomes 0-25
+            ByteVector lettere = caratteri.sub((byte)'A');
+            ByteVector cifre = caratteri.sub((byte)'0');
+            ByteVector valori = lettere.blend(cifre, cifre.compare(VectorOperators.LT, (byte)10).and(cifre.compare(VectorOperators.GE, (byte)0)));
+            
+            VectorMask<Byte> nonValidi = valori.compare(VectorOperators.LT, (byte)0).or(valori.compare(VectorOperators.GT, (byte)25)).andNot(CONTROLLO);
+            
+            //the vector operations are all done, without branches: a vector that goes through an if is stored in memory
+            ByteVector somme = ZERO.blend(dispari(valori), POSIZIONIPARI.or(CONTROLLO).not()).blend(valori, POSIZIONIPARI);
+            
+            //after the 4 steps the first lane of every code has the sum of its 16 lanes (the control one is 0), modulo 26
+            somme = modulo(somme.add(somme.rearrange(AVANTI1)));
+            somme = modulo(somme.add(somme.rearrange(AVANTI2)));
+            somme = modulo(somme.add(somme.rearrange(AVANTI4)));
+            somme = modulo(somme.add(somme.rearrange(AVANTI8)));
+            
+            //the control characters are moved to the first lane of their code and compared with the sums
+            VectorMask<Byte> uguali = somme.compare(VectorOperators.EQ, caratteri.rearrange(AVANTICONTROLLO).sub((byte)'A')).or(ALTRECORSIE);
+            
+            //a character that isn't a letter or digit or a wrong control character make at least one code invalid, so the whole vector is checked by the scalar loop
+            boolean validi = !nonValidi.anyTrue() & uguali.allTrue();
+            
+            if(validi) { //all of the codes of the vector are correct, as almost always happens
+                corretti += CODICIPERVETTORE;
+                if(esiti != null) {
+                    for (int j=0; j<CODICIPERVETTORE; j++) {
+                        esiti[i+j] = true;
+                    }
+                }
+            }
+            else { //at least one wrong code: the codes of the vector are checked one by one to find which ones
+                for (int j=i; j<i+CODICIPERVETTORE; j++) {
+                    boolean corretto = VerificaControllo.Scalare.verificaCodice(codici, j*LUNGHEZZA);
+                    if(corretto) {
+                        corretti++;
+                    }
+                    if(esiti != null) {
+                        esiti[j] = corretto;
+                    }
+                }
+            }
+        }
+        
+        //the last codes, not enough to fill a vector
+        for (; i<a; i++) {
+            boolean corretto = VerificaControllo.Scalare.verificaCodice(codici, i*LUNGHEZZA);
+            if(corretto) {
+                corretti++;
+            }
+            if(esiti != null) {
+                esiti[i] = corretto;
+            }
+        }
+        
+        return corretti;
+    }
+    
+    /**
+     * Computes the value in odd position of every lane (from 0 to 25): 2*value, plus a correction that starts from 1 (the value of A)
+     * and changes (by the first number) at every value (the second number) where the table stops growing by 2.
+     * The steps are written one by one: in a loop the vector would be stored in memory at every iteration
+     */
+    private static ByteVector dispari(ByteVector valori) {
+        
+        ByteVector dispari = valori.add(valori).add((byte)1);
+        dispari = dispari.add(ZERO.blend((byte)-3, valori.compare(VectorOperators.GE, (byte)1)));
+        dispari = dispari.add(ZERO.blend((byte)3, valori.compare(VectorOperators.GE, (byte)2)));
+        dispari = dispari.add(ZERO.blend((byte)2, valori.compare(VectorOperators.GE, (byte)5)));
+        dispari = dispari.add(ZERO.blend((byte)-21, valori.compare(VectorOperators.GE, (byte)10)));
+        dispari = dispari.add(ZERO.blend((byte)12, valori.compare(VectorOperators.GE, (byte)12)));
+        dispari = dispari.add(ZERO.blend((byte)-11, valori.compare(VectorOperators.GE, (byte)14)));
+        dispari = dispari.add(ZERO.blend((byte)-10, valori.compare(VectorOperators.GE, (byte)15)));
+        dispari = dispari.add(ZERO.blend((byte)1, valori.compare(VectorOperators.GE, (byte)16)));
+        dispari = dispari.add(ZERO.blend((byte)2, valori.compare(VectorOperators.GE, (byte)18)));
+        dispari = dispari.add(ZERO.blend((byte)-8, valori.compare(VectorOperators.GE, (byte)21)));
+        dispari = dispari.add(ZERO.blend((byte)10, valori.compare(VectorOperators.GE, (byte)22)));
+        dispari = dispari.add(ZERO.blend((byte)1, valori.compare(VectorOperators.GE, (byte)23)));
+        dispari = dispari.add(ZERO.blend((byte)-3, valori.compare(VectorOperators.GE, (byte)24)));
+        dispari = dispari.add(ZERO.blend((byte)-3, valori.compare(VectorOperators.GE, (byte)25)));
+        
+        return dispari;
+    }
+    
+    /**
+     * Brings every lane from 0-51 back to 0-25
+     */
+    private static ByteVector modulo(ByteVector valori) {
+        return valori.blend(valori.sub((byte)26), valori.compare(VectorOperators.GE, (byte)26));
+    }
+    
+    /**
+     * @return a bit for every lane that has one of the given positions in its code
+     */
+    private static long corsie(int... posizioni) {
+        
+        long bit = 0;
+        for (int i=0; i<SPECIE.length(); i++) {
+            for (int posizione : posizioni) {
+                if(i % LUNGHEZZA == posizione) {
+                    bit |= 1L << i;
+                }
+            }
+        }
+        
+        return bit;
+    }
+    
+    /**
+     * @return shuffle in which every lane takes the value of the lane "passo" positions after it
+     */
+    private static VectorShuffle<Byte> spostamento(int passo) {
+        return VectorShuffle.fromOp(SPECIE, i -> (i + passo) % SPECIE.length());
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the 3-character codes of surnames and names, for data in which the same ones are repeated in most rows.
+ * The key is the text exactly as given (not normalized) together with its kind (name or surname), and the value is computed by {@link Segmenti},
+ * so the code written is always the same one written without the cache.
+ * <p>
+ * Entries are in sets of 4, chosen by the hash of the text. When a set is full, a new text enters only if it was asked more often than
+ * the least asked entry of the set (TinyLFU admission): the frequencies are estimated by a count-min sketch of 4-bit counters, halved every
+ * 10 requests per entry so that old frequencies fade. A scan of texts seen only once can't push out the frequent ones.
+ * <p>
+ * It can be used by any number of threads without locks: the entries are immutable and replaced with a single write,
+ * and the counters of the sketch are updated without synchronization (a lost increment only makes the estimate a bit lower).
+ * @author Pietro P.
+ */
+public final class CacheSegmenti {
+    
+    /**
+     * Default number of entries
+     */
+    public static final int CAPACITAPREDEFINITA = 4096;
+    
+    private static final int VIE = 4; //entries of every set
+    private static final int PROFONDITA = 4; //counters of every text in the sketch
+    private static final long[] SEMI = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L}; //seed of every row of the sketch
+    
+    private final Voce[] voci; //entries, set i is in positions i*VIE ... i*VIE+VIE-1
+    private final int mascheraInsiemi; //number of sets - 1, the number is a power of 2
+    private final long[] contatori; //sketch: every long has 4 groups (one per row) of 4 counters of 4 bits
+    private final int mascheraContatori; //length of "contatori" - 1
+    private final int campione; //requests after which the counters are halved
+    private final AtomicInteger richiesteCampione = new AtomicInteger(); //requests since the counters were halved
+    
+    private final LongAdder successi = new LongAdder(); //requests found in the cache
+    private final LongAdder mancati = new LongAdder(); //requests computed
+    
+    /**
+     * Constructs a cache with the default capacity
+     */
+    public CacheSegmenti() {
+        this(CAPACITAPREDEFINITA);
+    }
+    
+    /**
+     * Constructs a cache
+     * @param capacita maximum number of entries, rounded up to a power of 2 (at least 4)
+     * @throws IllegalArgumentException if the capacity isn't positive or is too big
+     */
+    public CacheSegmenti(int capacita) {
+        
+        if(capacita < 1 || capacita > (1 << 26)) {
+            throw new IllegalArgumentException("Capacità della cache non valida.");
+        }
+        
+        int dimensione = Math.max(VIE, Integer.highestOneBit(capacita-1) << 1);
+        voci = new Voce[dimensione];
+        mascheraInsiemi = dimensione/VIE - 1;
+        contatori = new long[dimensione];
+        mascheraContatori = dimensione - 1;
+        campione = 10*dimensione;
+    }
+    
+    /**
+     * Returns the number of entries the cache can hold
+     * @return the capacity
+     */
+    public int getCapacita() {
+        return voci.length;
+    }
+    
+    /**
+     * Returns the number of requests answered by the cache
+     * @return requests found in the cache
+     */
+    public long getSuccessi() {
+        return successi.sum();
+    }
+    
+    /**
+     * Returns the number of requests that had to be computed
+     * @return requests not found in the cache
+     */
+    public long getMancati() {
+        return mancati.sum();
+    }
+    
+    /**
+     * Returns the share of requests answered by the cache
+     * @return hits / requests, 0 if there were no requests
+     */
+    public double getTassoSuccessi() {
+        
+        long trovati = successi.sum();
+        long richieste = trovati + mancati.sum();
+        return richieste == 0 ? 0 : (double)trovati/richieste;
+    }
+    
+    /**
+     * Sets the statistics back to 0, the entries stay
+     */
+    public void azzeraStatistiche() {
+        successi.reset();
+        mancati.reset();
+    }
+    
+    /**
+     * Writes the 3-character code of the surname, see {@link Segmenti#scriviCognome(CharSequence, char[], int)}
+     * @param cognome surname
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    public void scriviCognome(CharSequence cognome, char[] destinazione, int inizio) {
+        scrivi(cognome, false, destinazione, inizio);
+    }
+    
+    /**
+     * Writes the 3-character code of the name, see {@link Segmenti#scriviNome(CharSequence, char[], int)}
+     * @param nome name
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    public void scriviNome(CharSequence nome, char[] destinazione, int inizio) {
+        scrivi(nome, true, destinazione, inizio);
+    }
+    
+    /**
+     * Writes the code of a name or surname from the cache, or computes it and decides if it enters the cache
+     * @param testo name or surname
+     * @param nome true for the name, false for the surname
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    private void scrivi(CharSequence testo, boolean nome, char[] destinazione, int inizio) {
+        
+        int hash = hash(testo, nome);
+        registra(hash);
+        
+        int primo = (hash & mascheraInsiemi) * VIE; //first entry of the set
+        for (int i=primo; i<primo+VIE; i++) {
+            Voce voce = voci[i];
+            if(voce != null && voce.hash == hash && voce.nome == nome && voce.testo.contentEquals(testo)) {
+                destinazione[inizio] = voce.primo;
+                destinazione[inizio+1] = voce.secondo;
+                destinazione[inizio+2] = voce.terzo;
+                successi.increment();
+                return;
+            }
+        }
+        
+        mancati.increment();
+        if(nome) {
+            Segmenti.scriviNome(testo, destinazione, inizio);
+        }
+        else {
+            Segmenti.scriviCognome(testo, destinazione, inizio);
+        }
+        
+        //an empty entry is used if there's one, otherwise the least asked entry is replaced only if the new text was asked more often
+        int vittima = -1;
+        int frequenzaVittima = Integer.MAX_VALUE;
+        for (int i=primo; i<primo+VIE; i++) {
+            Voce voce = voci[i];
+            if(voce == null) {
+                vittima = i;
+                frequenzaVittima = -1;
+                break;
+            }
+            int frequenza = frequenza(voce.hash);
+            if(frequenza < frequenzaVittima) {
+                vittima = i;
+                frequenzaVittima = frequenza;
+            }
+        }
+        
+        if(frequenza(hash) > frequenzaVittima) {
+            voci[vittima] = new Voce(testo.toString(), nome, hash, destinazione[inizio], destinazione[inizio+1], destinazione[inizio+2]);
+        }
+    }
+    
+    /**
+     * Hash of a text and its kind, the same for a string and any other text with the same characters
+     * @param testo name or surname
+     * @param nome true for the name, false for the surname
+     * @return the hash, with well mixed bits
+     */
+    private static int hash(CharSequence testo, boolean nome) {
+        
+        int hash;
+        if(testo instanceof String) { //the hash of a string is already computed
+            hash = testo.hashCode();
+        }
+        else {
+            hash = 0;
+            for (int i=0; i<testo.length(); i++) {
+                hash = 31*hash + testo.charAt(i);
+            }
+        }
+        
+        hash = (hash ^ (nome ? 0x5BD1E995 : 0)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Counts a request of a text in the sketch, and halves all of the counters when the sample is over
+     * @param hash hash of the text
+     */
+    private void registra(int hash) {
+        
+        for (int i=0; i<PROFONDITA; i++) {
+            int posizione = posizione(hash, i);
+            int spostamento = spostamento(hash, i);
+            long valore = contatori[posizione];
+            if(((valore >>> spostamento) & 0xF) != 0xF) {
+                contatori[posizione] = valore + (1L << spostamento);
+            }
+        }
+        
+        if(richiesteCampione.incrementAndGet() == campione) {
+            for (int i=0; i<contatori.length; i++) {
+                contatori[i] = (contatori[i] >>> 1) & 0x7777777777777777L;
+            }
+            richiesteCampione.set(0);
+        }
+    }
+    
+    /**
+     * Estimates how many times a text was asked: the smallest of its counters
+     * @param hash hash of the text
+     * @return the estimate, from 0 to 15
+     */
+    private int frequenza(int hash) {
+        
+        int frequenza = 0xF;
+        for (int i=0; i<PROFONDITA; i++) {
+            frequenza = Math.min(frequenza, (int)(contatori[posizione(hash, i)] >>> spostamento(hash, i)) & 0xF);
+        }
+        
+        return frequenza;
+    }
+    
+    /**
+     * Long of the sketch that contains a counter of a text
+     * @param hash hash of the text
+     * @param riga row of the sketch
+     * @return position in "contatori"
+     */
+    private int posizione(int hash, int riga) {
+        
+        long h = (hash + SEMI[riga]) * SEMI[riga];
+        return (int)(h >>> 32) & mascheraContatori;
+    }
+    
+    /**
+     * Position of a counter of a text in its long: group of the row, then one of the 4 counters of the group
+     * @param hash hash of the text
+     * @param riga row of the sketch
+     * @return shift of the counter, in bits
+     */
+    private static int spostamento(int hash, int riga) {
+        return (riga*4 + ((hash >>> (2*riga)) & 3)) * 4;
+    }
+    
+    /**
+     * Entry of the cache, immutable so it can be read by other threads without synchronization
+     */
+    private static final class Voce {
+        
+        private final String testo; //name or surname, as given
+        private final boolean nome; //true for a name, false for a surname
+        private final int hash; //hash of the text and its kind
+        private final char primo; //first character of the code
+        private final char secondo; //second character of the code
+        private final char terzo; //third character of the code
+        
+        private Voce(String testo, boolean nome, int hash, char primo, char secondo, char terzo) {
+            
+            this.testo = testo;
+            this.nome = nome;
+            this.hash = hash;
+            this.primo = primo;
+            this.secondo = secondo;
+            this.terzo = terzo;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.time.LocalDate;
+
+/**
+ * Municipality proposed by {@link RisolutoreComuni} for a name that wasn't found exactly, with how much it resembles the name searched.
+ * It's immutable, so it can be shared between threads.
+ * @author Pietro P.
+ */
+public final class CandidatoComune {
+    
+    private final RegistroComuni registro; //registry that contains the municipality
+    private final int posizione; //position of the municipality in the registry
+    private final double punteggio; //similarity, from 0 to 1
+    
+    /**
+     * Constructs a candidate
+     * @param registro registry that contains the municipality
+     * @param posizione position of the municipality in the registry
+     * @param punteggio similarity, from 0 to 1
+     */
+    CandidatoComune(RegistroComuni registro, int posizione, double punteggio) {
+        
+        this.registro = registro;
+        this.posizione = posizione;
+        this.punteggio = punteggio;
+    }
+    
+    /**
+     * Returns the position of the municipality in the registry
+     * @return position in the registry
+     */
+    public int getPosizione() {
+        return posizione;
+    }
+    
+    /**
+     * Returns how much the municipality resembles the name searched: the share of groups of 3 letters that the two names have in common
+     * @return from 0 (nothing in common) to 1 (same name)
+     */
+    public double getPunteggio() {
+        return punteggio;
+    }
+    
+    /**
+     * Returns the name of the municipality
+     * @return municipality name
+     */
+    public String getComune() {
+        return registro.getComune(posizione);
+    }
+    
+    /**
+     * Returns the province code of the municipality
+     * @return province code
+     */
+    public String getProvincia() {
+        return registro.getProvincia(posizione);
+    }
+    
+    /**
+     * Returns the municipality code of the municipality
+     * @return municipality (Belfiore) code
+     */
+    public String getCodice() {
+        return registro.getCodice(posizione);
+    }
+    
+    /**
+     * Returns the first day in which the municipality existed
+     * @return start of validity, or null if the municipality has always existed
+     */
+    public LocalDate getInizioValidita() {
+        return registro.getInizioValidita(posizione);
+    }
+    
+    /**
+     * Returns the last day in which the municipality existed
+     * @return end of validity, or null if the municipality still exists
+     */
+    public LocalDate getFineValidita() {
+        return registro.getFineValidita(posizione);
+    }
+    
+    @Override
+    public String toString() {
+        return getComune() + ", " + getProvincia() + " (" + String.format("%.2f", punteggio) + ")";
+    }
+}
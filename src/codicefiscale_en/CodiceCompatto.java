@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.Arrays;
+
+/**
+ * Fiscal code packed in two longs, to keep a lot of codes in primitive arrays instead of strings.
+ * Every position is a digit in a mixed radix number, with as many values as the characters it can have: 26 for letters, 12 for the month letter,
+ * 20 for digits (10 digits and the 10 omocodia letters). The first 8 characters go in the high long (37 bits), the other 8 in the low long (35 bits).
+ * The values follow the order of the characters, so comparing the longs (high first) gives the same order as comparing the strings.
+ * The static methods work directly on the longs, without allocating anything; an instance of this class holds a single code.
+ * Lowercase letters are accepted and turned to uppercase.
+ * @author Pietro P.
+ */
+public final class CodiceCompatto implements Comparable<CodiceCompatto> {
+    
+    /**
+     * Length of the byte form of a code: 5 bytes for each long, big endian, so comparing the bytes as unsigned gives the order of the strings
+     */
+    public static final int BYTE = 10;
+    
+    private static final int META = CodiceFiscale.LUNGHEZZA/2; //characters in every long
+    private static final String FORMATO = "LLLLLLNNMNNLNNNL"; //what every character can be: L letter, N digit (or omocodia letter), M month letter
+    private static final String LETTERE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String CIFRE = "0123456789" + Segmenti.OMOCODIA; //the omocodia letters come after the digits, like in the order of the characters
+    
+    private static final String[] SIMBOLI = new String[CodiceFiscale.LUNGHEZZA]; //characters that every position can have, in order
+    private static final byte[] VALORI = new byte[CodiceFiscale.LUNGHEZZA*128]; //value of every character in every position: VALORI[posizione*128+carattere], -1 if not allowed
+    
+    private final long alto; //first 8 characters
+    private final long basso; //last 8 characters
+    
+    /**
+     * Packs a fiscal code
+     * @param codice fiscal code
+     * @throws IllegalArgumentException if the code isn't 16 characters long or a character isn't allowed in its position
+     */
+    public CodiceCompatto(CharSequence codice) {
+        
+        if(codice.length() != CodiceFiscale.LUNGHEZZA) {
+            throw new IllegalArgumentException("Il codice fiscale deve essere di 16 caratteri.");
+        }
+        
+        char[] caratteri = new char[CodiceFiscale.LUNGHEZZA];
+        for (int i=0; i<caratteri.length; i++) {
+            caratteri[i] = codice.charAt(i);
+        }
+        
+        alto = alto(caratteri, 0);
+        basso = basso(caratteri, 0);
+        
+        if(alto < 0 || basso < 0) {
+            throw new IllegalArgumentException("Formato del codice fiscale non valido.");
+        }
+    }
+    
+    /**
+     * Constructs a code from its two longs
+     * @param alto high long, see {@link #alto(char[], int)}
+     * @param basso low long, see {@link #basso(char[], int)}
+     * @throws IllegalArgumentException if the longs don't correspond to a code
+     */
+    public CodiceCompatto(long alto, long basso) {
+        
+        if(alto < 0 || alto >= massimo(0) || basso < 0 || basso >= massimo(META)) {
+            throw new IllegalArgumentException("Codice compatto non valido.");
+        }
+        
+        this.alto = alto;
+        this.basso = basso;
+    }
+    
+    /**
+     * Returns the high long
+     * @return the first 8 characters packed
+     */
+    public long getAlto() {
+        return alto;
+    }
+    
+    /**
+     * Returns the low long
+     * @return the last 8 characters packed
+     */
+    public long getBasso() {
+        return basso;
+    }
+    
+    /**
+     * Returns the byte form of the code
+     * @return array of 10 bytes
+     */
+    public byte[] toByteArray() {
+        
+        byte[] dati = new byte[BYTE];
+        scriviByte(alto, basso, dati, 0);
+        return dati;
+    }
+    
+    @Override
+    public int compareTo(CodiceCompatto altro) {
+        return confronta(alto, basso, altro.alto, altro.basso);
+    }
+    
+    @Override
+    public boolean equals(Object altro) {
+        return altro instanceof CodiceCompatto && ((CodiceCompatto)altro).alto == alto && ((CodiceCompatto)altro).basso == basso;
+    }
+    
+    @Override
+    public int hashCode() {
+        return (int)hash(alto, basso);
+    }
+    
+    @Override
+    public String toString() {
+        
+        char[] caratteri = new char[CodiceFiscale.LUNGHEZZA];
+        scrivi(alto, basso, caratteri, 0);
+        return new String(caratteri);
+    }
+    
+    /**
+     * Packs the first 8 characters of a code
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @return the high long, -1 if a character isn't allowed in its position
+     */
+    public static long alto(char[] codice, int inizio) {
+        return impacchetta(codice, inizio, 0);
+    }
+    
+    /**
+     * Packs the last 8 characters of a code
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @return the low long, -1 if a character isn't allowed in its position
+     */
+    public static long basso(char[] codice, int inizio) {
+        return impacchetta(codice, inizio, META);
+    }
+    
+    /**
+     * Writes the characters of a packed code. The longs must be valid
+     * @param alto high long
+     * @param basso low long
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    public static void scrivi(long alto, long basso, char[] destinazione, int inizio) {
+        spacchetta(alto, 0, destinazione, inizio);
+        spacchetta(basso, META, destinazione, inizio);
+    }
+    
+    /**
+     * Compares two packed codes, with the same result of comparing their strings
+     * @param alto1 high long of the first code
+     * @param basso1 low long of the first code
+     * @param alto2 high long of the second code
+     * @param basso2 low long of the second code
+     * @return negative if the first code comes before the second one, 0 if they're equal, positive if it comes after
+     */
+    public static int confronta(long alto1, long basso1, long alto2, long basso2) {
+        return (alto1 != alto2) ? Long.compare(alto1, alto2) : Long.compare(basso1, basso2);
+    }
+    
+    /**
+     * Hash of a packed code, the bits are well mixed so any part of it can be used as the position in a hash table
+     * @param alto high long
+     * @param basso low long
+     * @return the hash
+     */
+    public static long hash(long alto, long basso) {
+        
+        //finalizer of MurmurHash3 on a combination of the two longs (alto is less than 2^37, so the multiplication doesn't lose it)
+        long h = alto*0x9E3779B97F4A7C15L + basso;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * Writes the byte form of a packed code: the 5 lowest bytes of each long, big endian
+     * @param alto high long
+     * @param basso low long
+     * @param destinazione array in which the bytes are written
+     * @param inizio position of the first byte in the array
+     */
+    public static void scriviByte(long alto, long basso, byte[] destinazione, int inizio) {
+        
+        for (int i=0; i<BYTE/2; i++) {
+            destinazione[inizio+i] = (byte)(alto >>> (8*(BYTE/2-1-i)));
+            destinazione[inizio+BYTE/2+i] = (byte)(basso >>> (8*(BYTE/2-1-i)));
+        }
+    }
+    
+    /**
+     * Reads the high long from the byte form of a code
+     * @param dati array containing the byte form
+     * @param inizio position of the first byte in the array
+     * @return the high long
+     */
+    public static long altoDaByte(byte[] dati, int inizio) {
+        return leggiByte(dati, inizio);
+    }
+    
+    /**
+     * Reads the low long from the byte form of a code
+     * @param dati array containing the byte form
+     * @param inizio position of the first byte in the array
+     * @return the low long
+     */
+    public static long bassoDaByte(byte[] dati, int inizio) {
+        return leggiByte(dati, inizio+BYTE/2);
+    }
+    
+    /**
+     * Reads 5 bytes, big endian
+     * @param dati array containing the bytes
+     * @param inizio position of the first byte in the array
+     * @return the long
+     */
+    private static long leggiByte(byte[] dati, int inizio) {
+        
+        long valore = 0;
+        for (int i=0; i<BYTE/2; i++) {
+            valore = (valore << 8) | (dati[inizio+i] & 0xFF);
+        }
+        
+        return valore;
+    }
+    
+    /**
+     * Packs 8 characters of a code
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @param primo position in the code of the first character to pack (0 or 8)
+     * @return the long, -1 if a character isn't allowed in its position
+     */
+    private static long impacchetta(char[] codice, int inizio, int primo) {
+        
+        long valore = 0;
+        int validi = 0; //negative if any character isn't allowed, checked at the end to avoid a branch for every character
+        
+        for (int i=primo; i<primo+META; i++) {
+            char c = codice[inizio+i];
+            int v = VALORI[i*128 + (c & 0x7F)] | ((0x7F-c) >> 31); //characters out of ASCII are not allowed too
+            validi |= v;
+            valore = valore*SIMBOLI[i].length() + v;
+        }
+        
+        return (validi < 0) ? -1 : valore;
+    }
+    
+    /**
+     * Writes 8 characters of a code from their long, the last one first
+     * @param valore the long
+     * @param primo position in the code of the first character (0 or 8)
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    private static void spacchetta(long valore, int primo, char[] destinazione, int inizio) {
+        
+        for (int i=primo+META-1; i>=primo; i--) {
+            int base = SIMBOLI[i].length();
+            destinazione[inizio+i] = SIMBOLI[i].charAt((int)(valore % base));
+            valore /= base;
+        }
+    }
+    
+    /**
+     * Number of different values of the long of 8 characters
+     * @param primo position in the code of the first character (0 or 8)
+     * @return the product of the number of characters allowed in every position
+     */
+    private static long massimo(int primo) {
+        
+        long massimo = 1;
+        for (int i=primo; i<primo+META; i++) {
+            massimo *= SIMBOLI[i].length();
+        }
+        
+        return massimo;
+    }
+    
+    static {
+        Arrays.fill(VALORI, (byte)-1);
+        for (int i=0; i<CodiceFiscale.LUNGHEZZA; i++) {
+            switch(FORMATO.charAt(i)) {
+                case 'L':
+                    SIMBOLI[i] = LETTERE;
+                    break;
+                case 'N':
+                    SIMBOLI[i] = CIFRE;
+                    break;
+                default:
+                    SIMBOLI[i] = Segmenti.CODICEMESI;
+            }
+            for (int j=0; j<SIMBOLI[i].length(); j++) {
+                char c = SIMBOLI[i].charAt(j);
+                VALORI[i*128 + c] = VALORI[i*128 + Character.toLowerCase(c)] = (byte)j;
+            }
+        }
+    }
+}
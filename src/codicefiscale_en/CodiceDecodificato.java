@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+/**
+ * Data read from a fiscal code by {@link Decodificatore}.
+ * It's mutable so that the same object can be reused for every decoded code without allocating anything: it must not be shared between threads.
+ * The values are meaningful only if the code was valid (or, for every single part, if there's no error about that part).
+ * @author Pietro P.
+ */
+public final class CodiceDecodificato {
+    
+    final char[] caratteri = new char[CodiceFiscale.LUNGHEZZA]; //characters of the last code, uppercase
+    
+    private RegistroComuni registro; //registry in which the municipality was searched
+    private int errori; //sum of the Decodificatore.ERRORE... constants of the errors found
+    private int anno; //birth year
+    private int mese; //birth month, 1-12
+    private int giorno; //birth day, 1-31
+    private char sesso; //'M' or 'F'
+    private int comune; //position of the municipality in the registry, -1 if it wasn't found
+    
+    /**
+     * Constructs an empty result, to be filled by {@link Decodificatore}
+     */
+    public CodiceDecodificato() {
+        comune = -1;
+    }
+    
+    /**
+     * Returns the errors found in the last code
+     * @return 0 if the code is valid, otherwise the sum (bitwise or) of the Decodificatore.ERRORE... constants of every error found
+     */
+    public int getErrori() {
+        return errori;
+    }
+    
+    /**
+     * Tells if the last code is valid
+     * @return true if no error was found
+     */
+    public boolean isValido() {
+        return errori == 0;
+    }
+    
+    /**
+     * Returns the birth year. The code has only the last 2 digits, so this is the most recent year with those digits that isn't in the future
+     * @return birth year
+     */
+    public int getAnno() {
+        return anno;
+    }
+    
+    /**
+     * Returns the birth month
+     * @return birth month, from 1 to 12
+     */
+    public int getMese() {
+        return mese;
+    }
+    
+    /**
+     * Returns the birth day
+     * @return birth day, from 1 to 31
+     */
+    public int getGiorno() {
+        return giorno;
+    }
+    
+    /**
+     * Returns the sex
+     * @return 'M' or 'F'
+     */
+    public char getSesso() {
+        return sesso;
+    }
+    
+    /**
+     * Returns the position of the birth municipality in the registry
+     * @return position in the registry, or -1 if the municipality wasn't found
+     */
+    public int getPosizioneComune() {
+        return comune;
+    }
+    
+    /**
+     * Returns the birth municipality
+     * @return municipality name, or null if it wasn't found
+     */
+    public String getComune() {
+        return comune < 0 ? null : registro.getComune(comune);
+    }
+    
+    /**
+     * Returns the province of the birth municipality
+     * @return province code, or null if the municipality wasn't found
+     */
+    public String getProvincia() {
+        return comune < 0 ? null : registro.getProvincia(comune);
+    }
+    
+    /**
+     * Returns the municipality (Belfiore) code, without omocodia letters
+     * @return municipality code, or null if the municipality wasn't found
+     */
+    public String getCodiceComune() {
+        return comune < 0 ? null : registro.getCodice(comune);
+    }
+    
+    /**
+     * Clears the data, keeping only the errors
+     */
+    void azzera(RegistroComuni registro, int errori) {
+        imposta(registro, errori, 0, 0, 0, '\0', -1);
+    }
+    
+    /**
+     * Stores the data of a decoded code
+     */
+    void imposta(RegistroComuni registro, int errori, int anno, int mese, int giorno, char sesso, int comune) {
+        
+        this.registro = registro;
+        this.errori = errori;
+        this.anno = anno;
+        this.mese = mese;
+        this.giorno = giorno;
+        this.sesso = sesso;
+        this.comune = comune;
+    }
+}
@@ -17,30 +17,50 @@
 package codicefiscale_en;
 
 import java.io.File;
-import java.text.Normalizer;
-import java.time.Year; 
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
 
 /**
  * Manages a Codice Fiscale (fiscal code) instance.
  * It's main purpose is to store data about a person to then generate that person's fiscal code.
+ * It's a mutable adapter over {@link Persona} and {@link Codificatore}: the setters validate one piece of data at a time, and the code is generated with the same segments of the shared encoder.
+ * The segments of the last generated code are kept with their part of the control sum, and a setter only marks the segment of its data as modified:
+ * generating the code again after changing a single piece of data recomputes only that segment (and searches the municipality only if it changed).
+ * An instance can't be shared between threads, use Persona and Codificatore for that.
  * Some of the algoriths can be confusing to understand without knowing how the fiscal code is built, check the <a href="https://it.wikipedia.org/wiki/Codice_fiscale">Wikipedia page</a> on it for more info.
  * @author Pietro P.
  */
 public class CodiceFiscale {
     
-    private final String CONSONANTI = "BCDFGHJKLMNPQRSTVWXYZbcdfghjklmnpqrstvwxyz";
-    private final String VOCALI = "AEIOUaeiou";
     /**
      * 125 years before the introduction of the fiscal code in 1973. No one that got a fiscal code was born before this year
      */
     public static final int ANNOSOGLIA = 1848;
+    /**
+     * Number of characters of a fiscal code
+     */
+    public static final int LUNGHEZZA = 16;
     /**
      * File that contains all italian municipalities
      */
     public static final File ELENCOCOMUNI = new File("Comuni Italiani.csv");
+    /**
+     * File that contains the alternative names of the municipalities (Alternative name,Province,Municipality code), like other languages or older spellings
+     */
+    public static final File ELENCOALIAS = new File("Alias Comuni.csv");
+    /**
+     * File that contains the validity intervals of the municipalities (Municipality,Province,Municipality code,Valid from,Valid to), including the ones that were suppressed or merged
+     */
+    public static final File ELENCOSTORICO = new File("Comuni Storici.csv");
+    
+    /**
+     * Returns the registry with all of the italian municipalities, that can be searched both by municipality and province and by municipality code (reverse lookup)
+     * @return the municipality registry shared by the whole process
+     * @throws Exception if the municipality registry can't be loaded
+     */
+    public static RegistroComuni getRegistroComuni() throws Exception {
+        return RegistroComuni.getIstanza();
+    }
     
     private String nome; //name
     private String cognome; //surname
@@ -51,6 +71,11 @@ public class CodiceFiscale {
     private String comune; //municipality
     private String provincia; //province
     
+    private final char[] buffer = new char[LUNGHEZZA]; //used to generate the code when it can't be written directly in the destination
+    private final char[] codice = new char[LUNGHEZZA]; //last generated code, only the segments not modified since then are still valid
+    private final int[] somme = new int[Codificatore.SEGMENTI]; //part of the control sum of every segment of "codice"
+    private int modificati = Codificatore.TUTTI; //segments of "codice" that have to be generated again, as Codificatore.SEGMENTO... bits
+    
     /**
      * Constructs a CoficeFiscale instance with all of the attributes initialized at default values
      */
@@ -97,12 +122,8 @@ public class CodiceFiscale {
      */
     public void setNome(String nome) throws Exception {
         
-        nome = nome.trim();
-        
-        if(nome.length() < 1 || nome.isBlank() || !hasCharsAlfabeto(nome)) {
-            throw new Exception("Nome non valido.");
-        }
-        this.nome = nome;
+        this.nome = Persona.controllaNome(nome);
+        modificati |= Codificatore.SEGMENTONOME;
     }
 
     /**
@@ -112,12 +133,8 @@ public class CodiceFiscale {
      */
     public void setCognome(String cognome) throws Exception {
         
-        cognome = cognome.trim();
-        
-        if(cognome.length() < 1 || cognome.isBlank() || !hasCharsAlfabeto(cognome)) {
-            throw new Exception("Cognome non valido.");
-        }
-        this.cognome = cognome;
+        this.cognome = Persona.controllaCognome(cognome);
+        modificati |= Codificatore.SEGMENTOCOGNOME;
     }
 
     /**
@@ -127,12 +144,8 @@ public class CodiceFiscale {
      */
     public void setAnno(int anno) throws Exception {
         
-        int annoCorrente = Year.now().getValue(); //current year
-        
-        if(anno < ANNOSOGLIA || anno > annoCorrente) {
-            throw new Exception("L'anno deve essere compreso tra 1848 e l'anno odierno.");
-        }
-        this.anno = anno;
+        this.anno = Persona.controllaAnno(anno);
+        modificati |= Codificatore.SEGMENTOANNO|Codificatore.SEGMENTOCOMUNE; //the municipality valid on the birth date can change too
     }
 
     /**
@@ -142,10 +155,8 @@ public class CodiceFiscale {
      */
     public void setMese(int mese) throws Exception {
         
-        if(mese < 1 || mese > 12) {
-            throw new Exception("Il mese inserito non esiste.");
-        }
-        this.mese = mese;
+        this.mese = Persona.controllaMese(mese);
+        modificati |= Codificatore.SEGMENTOMESE|Codificatore.SEGMENTOCOMUNE;
     }
 
     /**
@@ -155,10 +166,8 @@ public class CodiceFiscale {
      */
     public void setGiorno(int giorno) throws Exception {
         
-        if(giorno < 1 || giorno > 31) {
-            throw new Exception("Il giorno inserito non esiste.");
-        }
-        this.giorno = giorno;
+        this.giorno = Persona.controllaGiorno(giorno);
+        modificati |= Codificatore.SEGMENTOGIORNO|Codificatore.SEGMENTOCOMUNE;
     }
 
     /**
@@ -168,10 +177,8 @@ public class CodiceFiscale {
      */
     public void setSesso(char sesso) throws Exception {
         
-        if(sesso != 'm' && sesso != 'f' && sesso != 'M' && sesso != 'F') {
-            throw new Exception("Sesso inserito non valido.");
-        }
-        this.sesso = sesso;
+        this.sesso = Persona.controllaSesso(sesso);
+        modificati |= Codificatore.SEGMENTOGIORNO;
     }
 
     /**
@@ -181,12 +188,8 @@ public class CodiceFiscale {
      */
     public void setComune(String comune) throws Exception {
         
-        comune = comune.trim();
-        
-        if(comune.length() < 1 || comune.isBlank() || !hasCharsAlfabeto(comune)) {
-            throw new Exception("Comune non valido.");
-        }
-        this.comune = comune;
+        this.comune = Persona.controllaComune(comune);
+        modificati |= Codificatore.SEGMENTOCOMUNE;
     }
 
     /**
@@ -196,12 +199,8 @@ public class CodiceFiscale {
      */
     public void setProvincia(String provincia) throws Exception {
         
-        provincia = provincia.trim();
-        
-        if(provincia.length() < 2 || provincia.length() > 2 || provincia.isBlank() || !hasCharsAlfabeto(provincia)) {
-            throw new Exception("Provincia non valida.");
-        }
-        this.provincia = provincia.toUpperCase(); //all of the province 2 character codes are written all uppercase
+        this.provincia = Persona.controllaProvincia(provincia); //all of the province 2 character codes are written all uppercase
+        modificati |= Codificatore.SEGMENTOCOMUNE;
     }
 
     /**
@@ -269,273 +268,86 @@ public class CodiceFiscale {
     }
     
     /**
-     * Reduces a string to only a specific set of characters (the characters to use are passed in input with the string to reduce)
-     * @param caratteri the only characters that can be in the reduced string: all of the others will be removed
-     * @param stringa string to reduce
-     * @return reduced string, with all of the characters not containted in "caratteri" deleted
-     */
-    private String stringaRidotta(String caratteri, String stringa) {
-        
-        stringa = rimouviAccentate(stringa); //removes all accents
-        
-        //creates a regular expression that negates a character array formed by "caratteri"
-        //that's then used to remove every character of the input string that doesn't appear in the regex
-        String regex = "[^(?!"+caratteri+")]";
-        String ridotta = stringa.replaceAll(regex, "");
-        
-        return ridotta;
-    }
-    
-    /**
-     * Generates the Fiscal Code 3-character code for the surname
-     * @param cognome surname
-     * @return the surname 3-character code
+     * Returns the saved data as an immutable {@link Persona}, that can be shared between threads
+     * @return the person's data
+     * @throws Exception if the saved date doesn't exist
      */
-    private String stringaCognome(String cognome) {
-        
-        String output;
-        
-        cognome = cognome.toUpperCase(); //everything in the fiscal code is uppercase
-        
-        //Generates a string with all of the consonants present in the surname + the same but for vowels + 2 "X"
-        //Taking the first 3 characters of this string gives us the 3-char code of the surname.
-        output = stringaRidotta(CONSONANTI, cognome) + stringaRidotta(VOCALI, cognome) + "XX";
-        
-        return output.substring(0,3); //only the first 3 letters are taken (that form the 3-char code)
+    public Persona getPersona() throws Exception {
+        return new Persona(cognome, nome, anno, mese, giorno, sesso, comune, provincia);
     }
     
     /**
-     * Generates the Fiscal Code 3-character code for the name
-     * @param gnome name
-     * @return the name 3-character code
-     */
-    private String stringaNome(String nome) {
-        
-        String output;
-        String conspresenti; //contains only the consonants present in the name
-        
-        nome = nome.toUpperCase();
-        
-        conspresenti = stringaRidotta(CONSONANTI, nome); //Generates a string with all of the consonants present in the name
-        
-        //Generates a string with the previously created consonant string + the same but for vowels + 2 "X"
-        output = conspresenti + stringaRidotta(VOCALI, nome) + "XX";
-        
-        //since the name's 3-char code is generated slightly differently from the surname's one, another operation is needed
-        if(conspresenti.length()>=4) {
-            return output.substring(0,1)+output.substring(2,4); //If the surname has 4+ consonants, the first, thrid and fouth letters of the string get taken
-        }
-        else {
-            return output.substring(0,3); //If the surname has less than 4 consonants, the same rule as the surname applies
-        }
-    }
-    
-    /**
-     * Generates the 2 numbers corresponding to the year in the fiscal code
-     * @param anno birth year
-     * @return the 3 numbers of the year
+     * Generates the fiscal code using the input data
+     * @return String with fiscal code
+     * @throws Exception if the municipality registry can't be loaded or if the generator for the municipality code fails (codiceComune)
      */
-    private String stringaAnnoNascita(int anno) {
-        
-        String annostring = String.valueOf(anno); //transform int to String
+    public String costruisciCodiceFiscale() throws Exception {
         
-        return annostring.substring(2,4); //the 2 numbers of the year in the fiscal code are the last two numbers of the year (tens and units)
-    }
-    
-    /**
-     * Generates the letter used to refer to the birth month in the fiscal code
-     * @param mese birth month
-     * @return letter corresponding to the birth month 
-     */
-    private char charMeseNascita(int mese) {
+        char[] output = new char[LUNGHEZZA];
         
-        String codicemesi ="ABCDEHLMPRST"; //the list of characters corresponding to each month (janauary: A, february: B, ...)
+        costruisciCodiceFiscale(output, 0);
         
-        return codicemesi.charAt(mese-1); //returns the corresponding character of the month
+        return new String(output);
     }
     
     /**
-     * Generates the 2 numbers that identify day of birth and sex in the fiscal code
-     * @param giorno birth day
-     * @param sesso sex
-     * @return two numbers corresponding to birth day and sex
+     * Generates the fiscal code using the input data, writing its 16 characters in the given array instead of creating a String.
+     * Nothing is allocated while generating the code (unless name or surname contain accented letters), so it can be called in a loop to fill a big buffer.
+     * Only the segments whose data changed since the last call are generated again
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     * @throws Exception if the date doesn't exist, if the municipality registry can't be loaded or if the generator for the municipality code fails (codiceComune)
+     * @throws IndexOutOfBoundsException if the array doesn't have 16 characters of space after "inizio"
      */
-    private String stringaGiornoNascitaSesso(int giorno, char sesso) {
-        
-        String output = String.valueOf(giorno);
+    public void costruisciCodiceFiscale(char[] destinazione, int inizio) throws Exception {
         
-        if(sesso=='f' || sesso=='F') { //if sex is female, 40 is added to the value of the day
-            giorno=giorno+40;
-            output = String.valueOf(giorno);
+        //checks if the inserted date is actually exists
+        if(!Persona.isGiornoEsistente(giorno, mese, anno)) {
+            throw new Exception(Persona.messaggio(Persona.ERROREDATA));
         }
-        else if(giorno<10) {
-            output = "0"+giorno; //if the day is smaller than 10, a 0 is added at the font to keep it 2 characters long
+        if(inizio < 0 || inizio > destinazione.length-LUNGHEZZA) {
+            throw new IndexOutOfBoundsException("Spazio insufficiente per il codice fiscale.");
         }
         
-        return output;
+        aggiornaCodice();
+        System.arraycopy(codice, 0, destinazione, inizio, LUNGHEZZA);
     }
     
     /**
-     * Finds the code of the municipality given in input by searching in a .csv file containging all italian municipalities 
-     * @param comune municipality to compare
-     * @param provincia province to compare
-     * @param file file with all of the italian municipalities
-     * @return the correct municipality code
-     * @throws Exception if the file wasn't found, or if the municipality and province weren't found in the file
+     * Generates again the segments modified since the last code, with their part of the control sum, then the control character from all of the parts (see {@link Codificatore#aggiorna})
+     * @throws Exception if the municipality registry can't be loaded or if the municipality and province weren't found in it
      */
-    private String codiceComune(String comune, String provincia, File file) throws Exception {
-        
-        comune = comune.toUpperCase();
-        comune = rimouviAccentate(comune);
-        
-        final String DELIMITATORE = ","; //value delimitator in .csv files
-        Scanner input = new Scanner(file);
-        String[] linea = null; //contains the current line of the .csv file, split in parts
-        boolean trovato=false; //verifies that the municipality code was found
+    private void aggiornaCodice() throws Exception {
         
-        while(input.hasNextLine()) { //reads all of the lines of the file
-            
-            linea = input.nextLine().split(DELIMITATORE); //splits the line in Municipality, Province and Municipality code
-            
-            //if municipality and province of the current line coincide with the ones passed in input, the right line has been found and the program can exit the cycle
-            if(linea[0].equals(comune) && linea[1].equals(provincia)) {
-                trovato=true;
-                break;
-            }
+        if(modificati == 0) {
+            return;
         }
         
-        if(!trovato) { //if the municipality and province weren't found, an error is thrown
-            throw new Exception("Comune/Provincia non trovati nell'elenco.");
-        }
-        
-        return linea[2]; //returns the municipality code
+        //the encoder writes only the modified segments, with the cache of names and surnames if it has one
+        Codificatore.getPredefinito().aggiorna(cognome, nome, anno, mese, giorno, sesso, comune, provincia, modificati, codice, 0, somme);
+        modificati = 0;
     }
     
     /**
-     * Generates a control character using a very specific algorithm to validate the fiscal code: if this character is incorrect, then the code is a false
-     * @param codiceFiscale the rest of the fiscal code string from which the control character will be generated
-     * @return the control character
+     * Generates the fiscal code using the input data, writing its 16 characters in the given buffer at its current position, which is then moved after the code
+     * @param destinazione buffer in which the fiscal code is written
+     * @throws Exception if the date doesn't exist, if the municipality registry can't be loaded or if the generator for the municipality code fails (codiceComune)
+     * @throws java.nio.BufferOverflowException if the buffer has less than 16 characters of space remaining
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only
      */
-    private char carattereControllo(String codiceFiscale) {
-        
-        codiceFiscale = codiceFiscale.toUpperCase();
+    public void costruisciCodiceFiscale(CharBuffer destinazione) throws Exception {
         
-        //array that contains the numerical values to use for characters in an odd position --> A/0 = 1, B/1 = 0, .... (even position is just 0 to 25)
-        int[] charDispari = {1,0,5,7,9,13,15,17,19,21,2,4,18,20,11,3,6,8,12,14,16,10,22,25,24,23};
-        char charControllo;
-        int somma=0; //total of all the character values
-        
-        for (int i=1; i<=codiceFiscale.length(); i++) { //it starts from 1 because in the algorithm (since it was first done by humans and not machines), first char is 1, not 0
-            
-            if(i%2==0) { //characters in even position
-                if(Character.isDigit(codiceFiscale.charAt(i-1))) { //i-1 --> because it started from 1 instead of 0
-                    somma = somma + Character.digit(codiceFiscale.charAt(i-1), 10); //if the character is a number, his value is used
-                }
-                else {
-                    somma = somma + codiceFiscale.charAt(i-1)-'A'; //subtraction between current char and "A" returns the value to add to the total (A-A = 0, B-A = 1, ...)
-                }
-            }
-            else { //characters in odd position
-                if(Character.isDigit(codiceFiscale.charAt(i-1))) {
-                    //if the character is a number, the value of the number corresponds to the index of the array where the value to add to the total is
-                    somma = somma + charDispari[Character.digit(codiceFiscale.charAt(i-1), 10)]; 
-                }
-                else {
-                    //subtraction between current char and "A" corresponds to the index of the array where the value to add to the total is
-                    somma = somma + charDispari[codiceFiscale.charAt(i-1)-'A'];
-                }
-            }
+        if(destinazione.remaining() < LUNGHEZZA) {
+            throw new BufferOverflowException();
         }
         
-        //the remainder of the division of the total by 26 + "A" gives the Unicode number for the control character (remainder 0 --> A, remainder 1 --> B, ...)
-        charControllo = (char)((somma % 26)+'A');
-        
-        return charControllo;
-    }
-    
-    /**
-     * Generates the fiscal code using the input data
-     * @return String with fiscal code
-     * @throws Exception if the generator for the municipality code fails (codiceComune)
-     */
-    public String costruisciCodiceFiscale() throws Exception {
-        
-        String output;
-        
-        //checks if the inserted date is actually exists
-        if(!isGiornoEsistente(giorno, mese, anno)) {
-            throw new Exception("Data inserita non esistente.");
+        if(destinazione.hasArray()) { //the code is written directly in the array behind the buffer
+            costruisciCodiceFiscale(destinazione.array(), destinazione.arrayOffset()+destinazione.position());
+            destinazione.position(destinazione.position()+LUNGHEZZA);
         }
-        
-        output = stringaCognome(cognome) + stringaNome(nome) + stringaAnnoNascita(anno) + charMeseNascita(mese) + stringaGiornoNascitaSesso(giorno, sesso) + codiceComune(comune, provincia, ELENCOCOMUNI);
-        output = output + carattereControllo(output); //adds the control char
-        
-        return output;
-    }
-    
-    /**
-     * Using month and year as reference, checks if the day given in input exisits
-     * @param giorno the day to check
-     * @param mese month for reference
-     * @param anno year for reference
-     * @return true if the day exists, otherwise false
-     */
-    private boolean isGiornoEsistente(int giorno, int mese, int anno) {
-        
-        boolean output=true;
-        boolean isBisestile = Year.isLeap(anno); //checks if the year is a leap year
-        
-        switch(mese) {
-            //checks that for 30-day months the day is smaller (or equal, of course) than 30
-            case 4:
-            case 6:
-            case 9:
-            case 11:
-                if(giorno > 30) {
-                    output=false;
-                }
-                break;
-            //for february, first checks if it's a leap year or not: if it's a leap year, the day must be smaller than 29, if it's not the day must be smaller than 28
-            case 2:
-                if(isBisestile) {
-                    if(giorno > 29) {
-                        output=false;
-                    }
-                }
-                else {
-                    if(giorno > 28) {
-                        output=false;
-                    }
-                }
-                break;
+        else { //direct or read-only buffers don't have an accessible array, the code is generated in a reusable array of the instance and then copied
+            costruisciCodiceFiscale(buffer, 0);
+            destinazione.put(buffer);
         }
-        
-        return output;
-    }
-    
-    /**
-     * Substitutes accented letters with their non-accented counterpart
-     * @param stringa the string from which accents have to be removed
-     * @return the string without accents
-     */
-    private String rimouviAccentate(String stringa) {
-        
-        stringa = Normalizer.normalize(stringa, Normalizer.Form.NFD); //normalize string
-        stringa = stringa.replaceAll("\\p{M}", ""); //remove the accents
-        
-        return stringa;
-    }
-    
-    /**
-     * Checks that the input string contains at least one alphabet character
-     * @param stringa the string to check
-     * @return "true" if the string contains at least one alphabet char, otherwise "false"
-     */
-    private boolean hasCharsAlfabeto(String stringa) {
-        
-        Pattern pattern = Pattern.compile("[a-zA-Z]"); //compiles the regex in a pattern
-        Matcher matcher = pattern.matcher(stringa); //matcher that will match the string against the pattern
-        
-        return matcher.find(); //searches if the pattern appears in the string
     }
 }
\ No newline at end of file
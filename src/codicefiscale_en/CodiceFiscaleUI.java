@@ -18,7 +18,6 @@ package codicefiscale_en;
 
 import java.time.Year;
 import com.formdev.flatlaf.FlatLightLaf;
-import java.util.Scanner;
 import javax.swing.RowFilter;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -331,17 +330,20 @@ public class CodiceFiscaleUI extends javax.swing.JFrame {
                 throw new Exception("Nessun comune selezionato");
             }
             
+            String riga = tableComune.getValueAt(tableComune.getSelectedRow(), 0).toString(); //selected row of the municipality table, "Municipality, Province"
+            
             //retrieves all of the data from the app's fields in the UI to build the fiscal code
-            codiceFiscale.setCognome(textFieldCognome.getText());
-            codiceFiscale.setNome(textFieldNome.getText());
-            codiceFiscale.setAnno(comboBoxAnno.getSelectedIndex()+CodiceFiscale.ANNOSOGLIA);
-            codiceFiscale.setMese(comboBoxMese.getSelectedIndex()+1);
-            codiceFiscale.setGiorno(comboBoxGiorno.getSelectedIndex()+1);
-            codiceFiscale.setSesso(sesso);
-            codiceFiscale.setComune(tableComune.getValueAt(tableComune.getSelectedRow(), 0).toString().substring(0, tableComune.getValueAt(tableComune.getSelectedRow(), 0).toString().length()-4));
-            codiceFiscale.setProvincia(tableComune.getValueAt(tableComune.getSelectedRow(), 0).toString().substring(tableComune.getValueAt(tableComune.getSelectedRow(), 0).toString().length()-3));
-
-            textFieldCodiceFiscale.setText(codiceFiscale.costruisciCodiceFiscale()); //generates the fiscal code and prints it in "textFieldCodiceFiscale"
+            Persona persona = new Persona(
+                    textFieldCognome.getText(),
+                    textFieldNome.getText(),
+                    comboBoxAnno.getSelectedIndex()+CodiceFiscale.ANNOSOGLIA,
+                    comboBoxMese.getSelectedIndex()+1,
+                    comboBoxGiorno.getSelectedIndex()+1,
+                    sesso,
+                    riga.substring(0, riga.length()-4),
+                    riga.substring(riga.length()-3));
+
+            textFieldCodiceFiscale.setText(Codificatore.getPredefinito().codifica(persona)); //generates the fiscal code and prints it in "textFieldCodiceFiscale"
             
         } catch(Exception ecc) {
             textFieldErrori.setText(ecc.getMessage());
@@ -422,27 +424,35 @@ public class CodiceFiscaleUI extends javax.swing.JFrame {
     }
     
     /**
-     * Generates a list with all of the municipalities present in Italy from a .csv file, and inserts them in "tableComune" (Municipality table)
+     * Generates a list with all of the municipalities present in Italy from the municipality registry, and inserts them in "tableComune" (Municipality table)
      * It also initializes the RowSorter and Filter for the table, so that it's possible to search for a specific municipality
-     * @throws Exception if the .csv file is not found
+     * @throws Exception if the municipality registry can't be loaded
      */
     private void initTableComune() throws Exception {
         
-        final String DELIMITATORE = ","; //value delimitator in .csv files
-        Scanner input = new Scanner(CodiceFiscale.ELENCOCOMUNI);
+        registro = RegistroComuni.getIstanza(); //registry with all of the municipalities, already loaded in memory
         DefaultTableModel modello = (DefaultTableModel)tableComune.getModel(); //gets the model of the municipality table, to add more rows
         String[] output = new String[1]; //contains the text to inert at the appropriate row in the table (it's an array because jTable.addRow() accept only arrays even if single column)
-        String[] linea; //contains the current line of the .csv file, split in parts
-
-        while(input.hasNextLine()) { //reads all of the lines of the file
+        righe = new String[registro.size()];
 
-            linea = input.nextLine().split(DELIMITATORE); //splits the line in Municipality, Province and Municipality code
+        for (int i=0; i<registro.size(); i++) { //reads all of the municipalities of the registry
 
-            output[0] = linea[0] + ", " + linea[1]; //formats the String to add in a table row, like this: "Municipality, Province"
+            output[0] = registro.getComune(i) + ", " + registro.getProvincia(i); //formats the String to add in a table row, like this: "Municipality, Province"
+            righe[i] = Traslitterazione.piega(output[0]).toUpperCase(); //the search ignores case and accents
 
             modello.addRow(output); //adds a row containing Municipality and Province to the table
         }
         
+        //the same filter and arrays are used by every search, only their content changes
+        visibili = new boolean[righe.length];
+        trovate = new int[righe.length];
+        filtro = new RowFilter<TableModel, Integer>() {
+            @Override
+            public boolean include(RowFilter.Entry<? extends TableModel, ? extends Integer> riga) {
+                return visibili[riga.getIdentifier()];
+            }
+        };
+        
         sorter = new TableRowSorter<>(tableComune.getModel()); //creates a TableRowSorter
         tableComune.setRowSorter(sorter); //sets the sorter as the sorter for the Municipality table
     }
@@ -472,17 +482,44 @@ public class CodiceFiscaleUI extends javax.swing.JFrame {
     }
     
     /**
-     * Using the text input in the text search field, searches and shows only the rows that contain that text input, hiding all of the other rows
+     * Using the text input in the text search field, searches and shows only the rows that contain that text input (anywhere in "Municipality, Province",
+     * case and accents are ignored), hiding all of the other rows. While the text is being typed every search contains the last one,
+     * so only the rows found by the last search are checked again
      */
     private void ricercaTableComune() {
         
-        RowFilter<TableModel, Integer> filtro = null; //initializes a new row filter
+        String testo = Traslitterazione.piega(textFieldComune.getText().strip()).toUpperCase();
         
-        try {
-            filtro = RowFilter.regexFilter(textFieldComune.getText().toUpperCase(), 0); //shows only rows that have a correspondence to the regEx input in the search text field
-        } catch (java.util.regex.PatternSyntaxException e) { //if current expression doesn't parse, don't update
+        if(testo.isEmpty()) { //without text, all of the rows are shown
+            ultimaRicerca = null;
+            sorter.setRowFilter(null);
+            return;
         }
-        sorter.setRowFilter(filtro); //the filter gets applied do the table
+        
+        if(ultimaRicerca != null && testo.contains(ultimaRicerca)) { //only the rows that contained the last text can contain this one
+            int numero = 0;
+            for (int i=0; i<numeroTrovate; i++) {
+                if(righe[trovate[i]].contains(testo)) {
+                    trovate[numero++] = trovate[i];
+                }
+                else {
+                    visibili[trovate[i]] = false;
+                }
+            }
+            numeroTrovate = numero;
+        }
+        else {
+            numeroTrovate = 0;
+            for (int i=0; i<righe.length; i++) {
+                visibili[i] = righe[i].contains(testo);
+                if(visibili[i]) {
+                    trovate[numeroTrovate++] = i;
+                }
+            }
+        }
+        ultimaRicerca = testo;
+        
+        sorter.setRowFilter(filtro); //the filter gets applied do the table, even if it's the same object the rows are filtered again
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -512,5 +549,11 @@ public class CodiceFiscaleUI extends javax.swing.JFrame {
     private javax.swing.JTextField textFieldNome;
     // End of variables declaration//GEN-END:variables
     private TableRowSorter<TableModel> sorter;
-    private CodiceFiscale codiceFiscale = new CodiceFiscale();
+    private RegistroComuni registro; //registry with all of the municipalities, in the same order as the rows of the table
+    private String[] righe; //text of every row of the table, uppercase and without accents
+    private boolean[] visibili; //rows shown by the filter
+    private int[] trovate; //rows found by the last search, the first "numeroTrovate" elements
+    private int numeroTrovate;
+    private String ultimaRicerca; //text of the last search, null if all of the rows are shown
+    private RowFilter<TableModel, Integer> filtro; //filter that shows the rows in "visibili"
 }
\ No newline at end of file
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+
+/**
+ * Stateless service that generates fiscal codes.
+ * It only keeps a reference to the municipality registry, given once when it's constructed, so the same instance can be used by any number of threads at the same time without locks.
+ * It can also use a {@link CacheSegmenti} for the codes of names and surnames, which doesn't change the codes generated and can be shared by the threads too.
+ * @author Pietro P.
+ */
+public final class Codificatore {
+    
+    //segments of a fiscal code, as bits of the mask given to aggiorna()
+    static final int SEGMENTOCOGNOME = 1;
+    static final int SEGMENTONOME = 1 << 1;
+    static final int SEGMENTOANNO = 1 << 2;
+    static final int SEGMENTOMESE = 1 << 3;
+    static final int SEGMENTOGIORNO = 1 << 4; //day and sex
+    static final int SEGMENTOCOMUNE = 1 << 5;
+    static final int SEGMENTI = 6; //number of segments before the control character
+    static final int TUTTI = (1 << SEGMENTI) - 1; //mask with every segment
+    private static final int[] INIZISEGMENTI = {Segmenti.COGNOME, Segmenti.NOME, Segmenti.ANNO, Segmenti.MESE, Segmenti.GIORNO, Segmenti.COMUNE, Segmenti.CONTROLLO}; //start of every segment, and the end of the last one
+    
+    private static volatile Codificatore predefinito; //encoder that uses the registry shared by the whole process
+    
+    private final RegistroComuni registro; //registry with all of the italian municipalities
+    private final CacheSegmenti cache; //codes of names and surnames already computed, null to always compute them
+    
+    /**
+     * Constructs an encoder that uses the given municipality registry
+     * @param registro registry with all of the italian municipalities
+     */
+    public Codificatore(RegistroComuni registro) {
+        this(registro, null);
+    }
+    
+    /**
+     * Constructs an encoder that uses the given municipality registry and a cache for the codes of names and surnames
+     * @param registro registry with all of the italian municipalities
+     * @param cache cache of the codes of names and surnames, null to always compute them
+     */
+    public Codificatore(RegistroComuni registro, CacheSegmenti cache) {
+        
+        this.registro = registro;
+        this.cache = cache;
+    }
+    
+    /**
+     * Returns the encoder that uses the municipality registry shared by the whole process ({@link RegistroComuni#getIstanza()})
+     * @return the shared encoder
+     * @throws Exception if the municipality registry can't be loaded
+     */
+    public static Codificatore getPredefinito() throws Exception {
+        
+        Codificatore codificatore = predefinito;
+        
+        if(codificatore == null) { //there's no harm if two threads create it at the same time, they both use the same registry
+            codificatore = new Codificatore(RegistroComuni.getIstanza());
+            predefinito = codificatore;
+        }
+        
+        return codificatore;
+    }
+    
+    /**
+     * Returns the municipality registry used by this encoder
+     * @return municipality registry
+     */
+    public RegistroComuni getRegistro() {
+        return registro;
+    }
+    
+    /**
+     * Returns the cache of the codes of names and surnames used by this encoder
+     * @return the cache, null if the codes are always computed
+     */
+    public CacheSegmenti getCache() {
+        return cache;
+    }
+    
+    /**
+     * Generates the fiscal code of a person
+     * @param persona person's data
+     * @return String with fiscal code
+     * @throws Exception if the municipality and province of the person weren't found in the registry
+     */
+    public String codifica(Persona persona) throws Exception {
+        
+        char[] output = new char[CodiceFiscale.LUNGHEZZA];
+        
+        codifica(persona, output, 0);
+        
+        return new String(output);
+    }
+    
+    /**
+     * Generates the fiscal code of a person, writing its 16 characters in the given array instead of creating a String.
+     * Nothing is allocated while generating the code, so it can be called in a loop to fill a big buffer
+     * @param persona person's data
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     * @throws Exception if the municipality and province of the person weren't found in the registry
+     * @throws IndexOutOfBoundsException if the array doesn't have 16 characters of space after "inizio"
+     */
+    public void codifica(Persona persona, char[] destinazione, int inizio) throws Exception {
+        codifica(persona.getCognome(), persona.getNome(), persona.getAnno(), persona.getMese(), persona.getGiorno(), persona.getSesso(), persona.getComune(), persona.getProvincia(), destinazione, inizio);
+    }
+    
+    /**
+     * Generates the fiscal code of a person, writing its 16 characters in the given buffer at its current position, which is then moved after the code
+     * @param persona person's data
+     * @param destinazione buffer in which the fiscal code is written
+     * @throws Exception if the municipality and province of the person weren't found in the registry
+     * @throws BufferOverflowException if the buffer has less than 16 characters of space remaining
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only
+     */
+    public void codifica(Persona persona, CharBuffer destinazione) throws Exception {
+        
+        if(destinazione.remaining() < CodiceFiscale.LUNGHEZZA) {
+            throw new BufferOverflowException();
+        }
+        
+        if(destinazione.hasArray()) { //the code is written directly in the array behind the buffer
+            codifica(persona, destinazione.array(), destinazione.arrayOffset()+destinazione.position());
+            destinazione.position(destinazione.position()+CodiceFiscale.LUNGHEZZA);
+        }
+        else { //direct buffers don't have an accessible array, the code is generated in a temporary array and then copied
+            char[] output = new char[CodiceFiscale.LUNGHEZZA];
+            codifica(persona, output, 0);
+            destinazione.put(output);
+        }
+    }
+    
+    /**
+     * Checks all of the data of a person in a single pass, without throwing exceptions, including whether the municipality exists in the registry
+     * (which is searched only if municipality and province are valid)
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune municipality
+     * @param provincia province code
+     * @return 0 if the fiscal code can be generated, otherwise the sum (bitwise or) of the Persona.ERRORE... constants of every error found
+     * @see Persona#valida(String, String, int, int, int, char, String, String)
+     */
+    public int valida(String cognome, String nome, int anno, int mese, int giorno, char sesso, String comune, String provincia) {
+        
+        int errori = Persona.valida(cognome, nome, anno, mese, giorno, sesso, comune, provincia);
+        
+        if((errori & (Persona.ERRORECOMUNE|Persona.ERROREPROVINCIA)) == 0 && registro.cerca(comune.trim(), provincia.trim(), anno, mese, giorno) < 0) {
+            errori |= erroreComune(comune.trim(), provincia.trim());
+        }
+        
+        return errori;
+    }
+    
+    /**
+     * Generates the fiscal codes of a whole batch of people, given as parallel arrays (one array per piece of data, the same position in every array is the same person).
+     * The municipalities are given as positions in the registry, already resolved with {@link RegistroComuni#cerca(CharSequence, CharSequence, int, int, int)}, so no search is done for each person.
+     * The code of the person in position i is written in destinazione[16*i] ... destinazione[16*i+15]; invalid records are reported in "esiti" and don't stop the batch
+     * @param cognomi surnames
+     * @param nomi names
+     * @param anni birth years
+     * @param mesi birth months
+     * @param giorni birth days
+     * @param sessi sexes ('m', 'M', 'f' or 'F')
+     * @param comuni positions of the municipalities in the registry of this encoder
+     * @param destinazione array in which the codes are written, at least 16 times the number of people long
+     * @param esiti if not null, for every person 0 if the code was generated, otherwise the sum of the Persona.ERRORE... constants of the errors found (the code isn't written)
+     * @return how many codes were generated
+     * @throws IllegalArgumentException if the arrays don't have the same length, or "destinazione" is too short
+     */
+    public int codificaLotto(String[] cognomi, String[] nomi, int[] anni, int[] mesi, int[] giorni, byte[] sessi, int[] comuni, char[] destinazione, int[] esiti) {
+        return codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, 0, cognomi.length, destinazione, esiti);
+    }
+    
+    /**
+     * Generates the fiscal codes of a part of a batch of people, given as parallel arrays: see {@link #codificaLotto(String[], String[], int[], int[], int[], byte[], int[], char[], int[])}.
+     * Only the people from position "da" (included) to position "a" (excluded) are encoded, so different parts of the same batch can be encoded at the same time by different threads
+     * @param cognomi surnames
+     * @param nomi names
+     * @param anni birth years
+     * @param mesi birth months
+     * @param giorni birth days
+     * @param sessi sexes ('m', 'M', 'f' or 'F')
+     * @param comuni positions of the municipalities in the registry of this encoder
+     * @param da position of the first person to encode
+     * @param a position after the last person to encode
+     * @param destinazione array in which the codes are written, the code of the person in position i starts at 16*i
+     * @param esiti if not null, for every encoded person 0 if the code was generated, otherwise the sum of the Persona.ERRORE... constants of the errors found
+     * @return how many codes were generated
+     * @throws IllegalArgumentException if the arrays don't have the same length, "destinazione" is too short or the range isn't valid
+     */
+    public int codificaLotto(String[] cognomi, String[] nomi, int[] anni, int[] mesi, int[] giorni, byte[] sessi, int[] comuni, int da, int a, char[] destinazione, int[] esiti) {
+        
+        int n = cognomi.length;
+        
+        controllaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, destinazione, esiti);
+        if(da < 0 || a > n || da > a) {
+            throw new IllegalArgumentException("Intervallo del lotto non valido.");
+        }
+        
+        int generati = 0;
+        
+        for (int i=da; i<a; i++) {
+            
+            char sesso = (char)sessi[i];
+            int errori = Persona.validaAnagrafica(cognomi[i], nomi[i], anni[i], mesi[i], giorni[i], sesso);
+            if(comuni[i] < 0 || comuni[i] >= registro.size()) {
+                errori |= Persona.ERRORECOMUNENONTROVATO;
+            }
+            else if((errori & Persona.ERROREDATA) == 0 && !registro.isValido(comuni[i], anni[i], mesi[i], giorni[i])) {
+                errori |= Persona.ERRORECOMUNENONESISTENTE;
+            }
+            
+            if(errori == 0) {
+                scrivi(cognomi[i], nomi[i], anni[i], mesi[i], giorni[i], sesso, comuni[i], destinazione, i*CodiceFiscale.LUNGHEZZA);
+                generati++;
+            }
+            
+            if(esiti != null) {
+                esiti[i] = errori;
+            }
+        }
+        
+        return generati;
+    }
+    
+    /**
+     * Checks that the arrays of a batch can be encoded together: all of them must have the same length, and "destinazione" must have space for all of the codes
+     * @param cognomi surnames
+     * @param nomi names
+     * @param anni birth years
+     * @param mesi birth months
+     * @param giorni birth days
+     * @param sessi sexes
+     * @param comuni positions of the municipalities in the registry
+     * @param destinazione array in which the codes are written
+     * @param esiti array in which the errors are written, can be null
+     * @throws IllegalArgumentException if the arrays don't have the same length, or "destinazione" is too short
+     */
+    static void controllaLotto(String[] cognomi, String[] nomi, int[] anni, int[] mesi, int[] giorni, byte[] sessi, int[] comuni, char[] destinazione, int[] esiti) {
+        
+        int n = cognomi.length;
+        
+        if(nomi.length != n || anni.length != n || mesi.length != n || giorni.length != n || sessi.length != n || comuni.length != n || (esiti != null && esiti.length != n)) {
+            throw new IllegalArgumentException("Gli array del lotto non hanno tutti la stessa lunghezza.");
+        }
+        if(destinazione.length < (long)n*CodiceFiscale.LUNGHEZZA) {
+            throw new IllegalArgumentException("Spazio insufficiente per i codici fiscali del lotto.");
+        }
+    }
+    
+    /**
+     * Generates a fiscal code from data that was already validated one piece at a time (like the fields of {@link CodiceFiscale}), checking only what depends on more than one piece
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune municipality
+     * @param provincia province code
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     * @throws Exception if the date doesn't exist or if the municipality and province weren't found in the registry
+     * @throws IndexOutOfBoundsException if the array doesn't have 16 characters of space after "inizio"
+     */
+    void codifica(String cognome, String nome, int anno, int mese, int giorno, char sesso, String comune, String provincia, char[] destinazione, int inizio) throws Exception {
+        
+        //checks if the inserted date is actually exists
+        if(!Persona.isGiornoEsistente(giorno, mese, anno)) {
+            throw new Exception(Persona.messaggio(Persona.ERROREDATA));
+        }
+        if(inizio < 0 || inizio > destinazione.length-CodiceFiscale.LUNGHEZZA) {
+            throw new IndexOutOfBoundsException("Spazio insufficiente per il codice fiscale.");
+        }
+        
+        aggiorna(cognome, nome, anno, mese, giorno, sesso, comune, provincia, TUTTI, destinazione, inizio, null);
+    }
+    
+    /**
+     * Writes again only the given segments of a fiscal code, from data that was already validated one piece at a time, then the control character.
+     * It's used both to generate a whole code and to update a code after some of its data changed (like {@link CodiceFiscale} does after its setters)
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune municipality
+     * @param provincia province code
+     * @param segmenti segments to write, as the sum of the SEGMENTO... constants
+     * @param destinazione array in which the fiscal code is written, the segments not written must already contain their part of the code
+     * @param inizio position of the first character of the fiscal code in the array
+     * @param somme if not null, the part of the control sum of every segment: only the ones of the segments written are computed again.
+     * If null, the control sum is computed from the whole code
+     * @throws Exception if the municipality is written and the municipality and province weren't found in the registry (then nothing is written)
+     */
+    void aggiorna(String cognome, String nome, int anno, int mese, int giorno, char sesso, String comune, String provincia, int segmenti, char[] destinazione, int inizio, int[] somme) throws Exception {
+        
+        if((segmenti & SEGMENTOCOMUNE) != 0) { //searched first, so that nothing is written if it fails
+            Segmenti.scriviComune(codiceComune(comune, provincia, anno, mese, giorno), destinazione, inizio+Segmenti.COMUNE);
+        }
+        if((segmenti & SEGMENTOCOGNOME) != 0) {
+            scriviCognome(cognome, destinazione, inizio);
+        }
+        if((segmenti & SEGMENTONOME) != 0) {
+            scriviNome(nome, destinazione, inizio);
+        }
+        if((segmenti & SEGMENTOANNO) != 0) {
+            Segmenti.scriviAnno(anno, destinazione, inizio+Segmenti.ANNO);
+        }
+        if((segmenti & SEGMENTOMESE) != 0) {
+            Segmenti.scriviMese(mese, destinazione, inizio+Segmenti.MESE);
+        }
+        if((segmenti & SEGMENTOGIORNO) != 0) {
+            Segmenti.scriviGiornoSesso(giorno, sesso, destinazione, inizio+Segmenti.GIORNO);
+        }
+        
+        if(somme == null) {
+            destinazione[inizio+Segmenti.CONTROLLO] = Segmenti.carattereControllo(destinazione, inizio); //adds the control char
+            return;
+        }
+        
+        int somma = 0;
+        for (int i=0; i<SEGMENTI; i++) {
+            if((segmenti & (1 << i)) != 0) {
+                somme[i] = Segmenti.sommaControllo(destinazione, inizio, INIZISEGMENTI[i], INIZISEGMENTI[i+1]);
+            }
+            somma += somme[i];
+        }
+        destinazione[inizio+Segmenti.CONTROLLO] = (char)((somma % 26)+'A');
+    }
+    
+    /**
+     * Writes all of the segments of a fiscal code from data that was already validated, with the municipality already resolved to its position in the registry.
+     * Name and surname can be any text (like a view on the bytes of a file), they are converted to a string only if they have non-ASCII characters
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune position of the municipality in the registry
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     */
+    void scrivi(CharSequence cognome, CharSequence nome, int anno, int mese, int giorno, char sesso, int comune, char[] destinazione, int inizio) {
+        
+        scriviCognome(cognome, destinazione, inizio);
+        scriviNome(nome, destinazione, inizio);
+        Segmenti.scriviAnno(anno, destinazione, inizio+Segmenti.ANNO);
+        Segmenti.scriviMese(mese, destinazione, inizio+Segmenti.MESE);
+        Segmenti.scriviGiornoSesso(giorno, sesso, destinazione, inizio+Segmenti.GIORNO);
+        Segmenti.scriviComune(registro.getCodice(comune), destinazione, inizio+Segmenti.COMUNE);
+        destinazione[inizio+Segmenti.CONTROLLO] = Segmenti.carattereControllo(destinazione, inizio); //adds the control char
+    }
+    
+    /**
+     * Writes the code of the surname, from the cache if this encoder has one
+     * @param cognome surname
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     */
+    private void scriviCognome(CharSequence cognome, char[] destinazione, int inizio) {
+        
+        if(cache != null) {
+            cache.scriviCognome(cognome, destinazione, inizio+Segmenti.COGNOME);
+        }
+        else {
+            Segmenti.scriviCognome(cognome, destinazione, inizio+Segmenti.COGNOME);
+        }
+    }
+    
+    /**
+     * Writes the code of the name, from the cache if this encoder has one
+     * @param nome name
+     * @param destinazione array in which the fiscal code is written
+     * @param inizio position of the first character of the fiscal code in the array
+     */
+    private void scriviNome(CharSequence nome, char[] destinazione, int inizio) {
+        
+        if(cache != null) {
+            cache.scriviNome(nome, destinazione, inizio+Segmenti.NOME);
+        }
+        else {
+            Segmenti.scriviNome(nome, destinazione, inizio+Segmenti.NOME);
+        }
+    }
+    
+    /**
+     * Finds the code of the municipality given in input by searching in the registry containing all italian municipalities
+     * @param comune municipality to search
+     * @param provincia province to search
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @return the correct municipality code
+     * @throws Exception if the municipality and province weren't found in the registry, or the municipality didn't exist on the birth date
+     */
+    private String codiceComune(String comune, String provincia, int anno, int mese, int giorno) throws Exception {
+        
+        String codice = registro.codiceComune(comune, provincia, anno, mese, giorno); //the registry already ignores case and accents
+        
+        if(codice == null) { //if the municipality and province weren't found, an error is thrown
+            throw new Exception(Persona.messaggio(erroreComune(comune, provincia)));
+        }
+        
+        return codice; //returns the municipality code
+    }
+    
+    /**
+     * Tells why a municipality wasn't found on a date: either no municipality ever had that name, or it didn't exist on that date
+     * @param comune municipality
+     * @param provincia province code
+     * @return {@link Persona#ERRORECOMUNENONESISTENTE} if the municipality is in the registry, otherwise {@link Persona#ERRORECOMUNENONTROVATO}
+     */
+    int erroreComune(CharSequence comune, CharSequence provincia) {
+        return registro.cerca(comune, provincia) >= 0 ? Persona.ERRORECOMUNENONESISTENTE : Persona.ERRORECOMUNENONTROVATO;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates the fiscal codes of big batches of people using all of the available cores.
+ * The batch (given as parallel arrays, like {@link Codificatore#codificaLotto(String[], String[], int[], int[], int[], byte[], int[], char[], int[])})
+ * is split in parts that are encoded at the same time in a {@link ForkJoinPool}, all sharing the same read-only registry.
+ * Every code is written at the position of its person, so the output has always the same order as the input,
+ * and invalid records are reported one by one without stopping the batch.
+ * @author Pietro P.
+ */
+public final class CodificatoreParallelo {
+    
+    /**
+     * Default number of people under which a part of the batch isn't split anymore
+     */
+    public static final int SOGLIA = 4096;
+    
+    private final Codificatore codificatore; //stateless encoder shared by all of the threads
+    private final ForkJoinPool pool; //threads that encode the batch
+    private final int soglia; //number of people under which a part of the batch isn't split anymore
+    
+    /**
+     * Constructs a parallel encoder that uses the common ForkJoinPool
+     * @param codificatore encoder used for every part of the batch
+     */
+    public CodificatoreParallelo(Codificatore codificatore) {
+        this(codificatore, ForkJoinPool.commonPool(), SOGLIA);
+    }
+    
+    /**
+     * Constructs a parallel encoder that uses the given pool
+     * @param codificatore encoder used for every part of the batch
+     * @param pool threads that encode the batch
+     * @param soglia number of people under which a part of the batch isn't split anymore: too small and the cost of the tasks gets higher than the encoding, too big and the cores aren't all used
+     * @throws IllegalArgumentException if "soglia" isn't positive
+     */
+    public CodificatoreParallelo(Codificatore codificatore, ForkJoinPool pool, int soglia) {
+        
+        if(soglia < 1) {
+            throw new IllegalArgumentException("La soglia deve essere positiva.");
+        }
+        
+        this.codificatore = codificatore;
+        this.pool = pool;
+        this.soglia = soglia;
+    }
+    
+    /**
+     * Generates the fiscal codes of a whole batch of people, in parallel.
+     * Parameters, output and errors are the same as {@link Codificatore#codificaLotto(String[], String[], int[], int[], int[], byte[], int[], char[], int[])}
+     * @param cognomi surnames
+     * @param nomi names
+     * @param anni birth years
+     * @param mesi birth months
+     * @param giorni birth days
+     * @param sessi sexes ('m', 'M', 'f' or 'F')
+     * @param comuni positions of the municipalities in the registry of the encoder
+     * @param destinazione array in which the codes are written, the code of the person in position i starts at 16*i
+     * @param esiti if not null, for every person 0 if the code was generated, otherwise the sum of the Persona.ERRORE... constants of the errors found
+     * @return how many codes were generated
+     * @throws IllegalArgumentException if the arrays don't have the same length, or "destinazione" is too short
+     */
+    public int codificaLotto(String[] cognomi, String[] nomi, int[] anni, int[] mesi, int[] giorni, byte[] sessi, int[] comuni, char[] destinazione, int[] esiti) {
+        
+        //the arrays are checked once here, so that an error is thrown by the calling thread and not by one of the tasks
+        Codificatore.controllaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, destinazione, esiti);
+        
+        return pool.invoke(new Parte(cognomi, nomi, anni, mesi, giorni, sessi, comuni, 0, cognomi.length, destinazione, esiti));
+    }
+    
+    /**
+     * Measures how the throughput grows with the number of threads: a random batch is encoded once with {@link Codificatore#codificaLotto(String[], String[], int[], int[], int[], byte[], int[], char[], int[])}
+     * on the calling thread, then with a pool of 1, 2, ... threads up to the given number. For every run the best time of the repetitions is printed,
+     * with the speedup over the sequential encoding, and the codes are compared with the sequential ones
+     * @param args optionally number of people (default 1000000), maximum number of threads (default the number of cores) and repetitions of every run (default 5)
+     * @throws Exception if the municipality registry can't be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        
+        int persone = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int massimo = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int ripetizioni = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        
+        Codificatore codificatore = new Codificatore(RegistroComuni.getIstanza());
+        int numeroComuni = codificatore.getRegistro().size();
+        
+        //random batch, always the same for the same size
+        final String[] SILLABE = {"RO", "SSI", "MA", "RIO", "BIA", "NCHI", "DE", "LU", "CA", "ESPO", "SITO", "GIU", "SEP", "PE", "AN", "NA", "FER", "RA", "RI", "ZO", "E", "U"};
+        Random casuale = new Random(42);
+        String[] cognomi = new String[persone];
+        String[] nomi = new String[persone];
+        int[] anni = new int[persone];
+        int[] mesi = new int[persone];
+        int[] giorni = new int[persone];
+        byte[] sessi = new byte[persone];
+        int[] comuni = new int[persone];
+        for (int i=0; i<persone; i++) {
+            cognomi[i] = SILLABE[casuale.nextInt(SILLABE.length)] + SILLABE[casuale.nextInt(SILLABE.length)] + SILLABE[casuale.nextInt(SILLABE.length)];
+            nomi[i] = SILLABE[casuale.nextInt(SILLABE.length)] + SILLABE[casuale.nextInt(SILLABE.length)];
+            anni[i] = 1930 + casuale.nextInt(80);
+            mesi[i] = 1 + casuale.nextInt(12);
+            giorni[i] = 1 + casuale.nextInt(28);
+            sessi[i] = (byte)(casuale.nextBoolean() ? 'M' : 'F');
+            comuni[i] = casuale.nextInt(numeroComuni);
+        }
+        
+        char[] riferimento = new char[persone*CodiceFiscale.LUNGHEZZA];
+        char[] destinazione = new char[persone*CodiceFiscale.LUNGHEZZA];
+        int[] esiti = new int[persone];
+        Arrays.fill(riferimento, ' '); //the codes of the invalid people aren't written, they must be the same in both arrays
+        
+        //both paths are run a few times before measuring, so that the JIT has compiled them before the first run that is timed
+        CodificatoreParallelo riscaldamento = new CodificatoreParallelo(codificatore);
+        for (int r=0; r<ripetizioni; r++) {
+            codificatore.codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, riferimento, esiti);
+            riscaldamento.codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, destinazione, esiti);
+        }
+        
+        long migliore = Long.MAX_VALUE;
+        for (int r=0; r<ripetizioni; r++) {
+            long inizio = System.nanoTime();
+            codificatore.codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, riferimento, esiti);
+            migliore = Math.min(migliore, System.nanoTime()-inizio);
+        }
+        long sequenziale = migliore;
+        System.out.printf("Core: %d, persone: %d%n", Runtime.getRuntime().availableProcessors(), persone);
+        System.out.printf("sequenziale: %8.1f ms %8.2f M codici/s%n", sequenziale/1e6, persone*1e3/sequenziale);
+        
+        for (int thread=1; thread<=massimo; thread++) {
+            
+            ForkJoinPool pool = new ForkJoinPool(thread);
+            CodificatoreParallelo parallelo = new CodificatoreParallelo(codificatore, pool, SOGLIA);
+            
+            migliore = Long.MAX_VALUE;
+            for (int r=0; r<=ripetizioni; r++) { //the first run only starts the threads of the pool
+                Arrays.fill(destinazione, ' ');
+                long inizio = System.nanoTime();
+                parallelo.codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, destinazione, esiti);
+                long tempo = System.nanoTime()-inizio;
+                if(r > 0) {
+                    migliore = Math.min(migliore, tempo);
+                }
+            }
+            pool.shutdown();
+            
+            System.out.printf("%2d thread:  %8.1f ms %8.2f M codici/s  speedup %5.2f  efficienza %3.0f%%%s%n", thread, migliore/1e6, persone*1e3/migliore,
+                    (double)sequenziale/migliore, 100.0*sequenziale/migliore/thread, Arrays.equals(destinazione, riferimento) ? "" : "  CODICI DIVERSI");
+        }
+    }
+    
+    /**
+     * Part of a batch: if it's small enough it's encoded directly, otherwise it's split in two halves encoded in parallel
+     */
+    private final class Parte extends RecursiveTask<Integer> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final String[] cognomi;
+        private final String[] nomi;
+        private final int[] anni;
+        private final int[] mesi;
+        private final int[] giorni;
+        private final byte[] sessi;
+        private final int[] comuni;
+        private final int da; //first person of the part
+        private final int a; //position after the last person of the part
+        private final char[] destinazione;
+        private final int[] esiti;
+        
+        Parte(String[] cognomi, String[] nomi, int[] anni, int[] mesi, int[] giorni, byte[] sessi, int[] comuni, int da, int a, char[] destinazione, int[] esiti) {
+            
+            this.cognomi = cognomi;
+            this.nomi = nomi;
+            this.anni = anni;
+            this.mesi = mesi;
+            this.giorni = giorni;
+            this.sessi = sessi;
+            this.comuni = comuni;
+            this.da = da;
+            this.a = a;
+            this.destinazione = destinazione;
+            this.esiti = esiti;
+        }
+        
+        @Override
+        protected Integer compute() {
+            
+            if(a-da <= soglia) {
+                return codificatore.codificaLotto(cognomi, nomi, anni, mesi, giorni, sessi, comuni, da, a, destinazione, esiti);
+            }
+            
+            int meta = (da+a) >>> 1;
+            Parte sinistra = new Parte(cognomi, nomi, anni, mesi, giorni, sessi, comuni, da, meta, destinazione, esiti);
+            Parte destra = new Parte(cognomi, nomi, anni, mesi, giorni, sessi, comuni, meta, a, destinazione, esiti);
+            
+            sinistra.fork(); //the first half goes to another thread (if there's one free), the second one is encoded by this thread
+            int generati = destra.compute();
+            
+            return generati + sinistra.join();
+        }
+    }
+}
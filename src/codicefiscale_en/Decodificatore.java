@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stateless service that reads the data back from a fiscal code: the inverse of {@link Codificatore}.
+ * It extracts birth date, sex and municipality (searched in the registry with its Belfiore code) and verifies the control character.
+ * Decoding writes only in a reusable {@link CodiceDecodificato}, so it doesn't allocate anything, and the same instance can be used by any number of threads.
+ * Digits replaced by letters because of omocodia are accepted.
+ * @author Pietro P.
+ */
+public final class Decodificatore {
+    
+    /**
+     * Error: the code isn't 16 characters long
+     */
+    public static final int ERRORELUNGHEZZA = 1;
+    /**
+     * Error: a character isn't a letter where a letter is needed, or a digit where a digit is needed
+     */
+    public static final int ERROREFORMATO = 1 << 1;
+    /**
+     * Error: the month letter doesn't correspond to any month
+     */
+    public static final int ERROREMESE = 1 << 2;
+    /**
+     * Error: the day isn't between 1 and 31 (or between 41 and 71 for women)
+     */
+    public static final int ERROREGIORNO = 1 << 3;
+    /**
+     * Error: the birth date doesn't exist (like February 30th)
+     */
+    public static final int ERROREDATA = 1 << 4;
+    /**
+     * Error: there's no municipality with the code written in the fiscal code
+     */
+    public static final int ERRORECOMUNE = 1 << 5;
+    /**
+     * Error: the control character isn't the right one
+     */
+    public static final int ERRORECONTROLLO = 1 << 6;
+    
+    //message of every error, in the same order as the bits of the constants
+    private static final String[] MESSAGGI = {
+        "Il codice fiscale deve essere di 16 caratteri.",
+        "Formato del codice fiscale non valido.",
+        "Il mese del codice fiscale non esiste.",
+        "Il giorno del codice fiscale non esiste.",
+        "La data del codice fiscale non esiste.",
+        "Comune del codice fiscale non trovato nell'elenco.",
+        "Carattere di controllo errato."
+    };
+    
+    private static final String FORMATO = "LLLLLLNNMNNLNNNL"; //what every character can be: L letter, N digit (or omocodia letter), M month letter
+    private static final int[] CIFRE = new int[128]; //value of every digit and omocodia letter, -1 for the other characters
+    private static final int[] MESI = new int[128]; //month (1-12) of every month letter, -1 for the other characters
+    
+    private static volatile Decodificatore predefinito; //decoder that uses the registry shared by the whole process
+    
+    private final RegistroComuni registro; //registry with all of the italian municipalities
+    
+    /**
+     * Constructs a decoder that uses the given municipality registry
+     * @param registro registry with all of the italian municipalities
+     */
+    public Decodificatore(RegistroComuni registro) {
+        this.registro = registro;
+    }
+    
+    /**
+     * Returns the decoder that uses the municipality registry shared by the whole process ({@link RegistroComuni#getIstanza()})
+     * @return the shared decoder
+     * @throws Exception if the municipality registry can't be loaded
+     */
+    public static Decodificatore getPredefinito() throws Exception {
+        
+        Decodificatore decodificatore = predefinito;
+        
+        if(decodificatore == null) { //there's no harm if two threads create it at the same time, they both use the same registry
+            decodificatore = new Decodificatore(RegistroComuni.getIstanza());
+            predefinito = decodificatore;
+        }
+        
+        return decodificatore;
+    }
+    
+    /**
+     * Returns the municipality registry used by this decoder
+     * @return municipality registry
+     */
+    public RegistroComuni getRegistro() {
+        return registro;
+    }
+    
+    /**
+     * Decodes a fiscal code (case is ignored)
+     * @param codice fiscal code
+     * @param risultato object in which the data is written, can be reused for every code
+     * @return true if the code is valid, otherwise the errors are in {@link CodiceDecodificato#getErrori()}
+     */
+    public boolean decodifica(CharSequence codice, CodiceDecodificato risultato) {
+        
+        if(codice.length() != CodiceFiscale.LUNGHEZZA) {
+            risultato.azzera(registro, ERRORELUNGHEZZA);
+            return false;
+        }
+        
+        char[] caratteri = risultato.caratteri;
+        for (int i=0; i<CodiceFiscale.LUNGHEZZA; i++) {
+            caratteri[i] = codice.charAt(i);
+        }
+        
+        return decodifica(risultato);
+    }
+    
+    /**
+     * Decodes a fiscal code (case is ignored) read from a char array
+     * @param codice array containing the fiscal code
+     * @param inizio position of the first character of the code
+     * @param risultato object in which the data is written, can be reused for every code
+     * @return true if the code is valid, otherwise the errors are in {@link CodiceDecodificato#getErrori()}
+     */
+    public boolean decodifica(char[] codice, int inizio, CodiceDecodificato risultato) {
+        
+        if(inizio < 0 || inizio > codice.length-CodiceFiscale.LUNGHEZZA) {
+            risultato.azzera(registro, ERRORELUNGHEZZA);
+            return false;
+        }
+        
+        System.arraycopy(codice, inizio, risultato.caratteri, 0, CodiceFiscale.LUNGHEZZA);
+        
+        return decodifica(risultato);
+    }
+    
+    /**
+     * Returns the messages of the errors found while decoding
+     * @param errori sum of the ERRORE... constants, as returned by {@link CodiceDecodificato#getErrori()}
+     * @return the message of every error, in the same order as the constants
+     */
+    public static List<String> messaggi(int errori) {
+        
+        List<String> output = new ArrayList<>();
+        
+        for (int i=0; i<MESSAGGI.length; i++) {
+            if((errori & (1 << i)) != 0) {
+                output.add(MESSAGGI[i]);
+            }
+        }
+        
+        return output;
+    }
+    
+    /**
+     * Decodes the 16 characters already copied in the result
+     * @param risultato object with the characters of the code, in which the data is written
+     * @return true if the code is valid
+     */
+    private boolean decodifica(CodiceDecodificato risultato) {
+        
+        char[] caratteri = risultato.caratteri;
+        
+        //the format is checked first, all of the other checks need letters and digits in the right places
+        for (int i=0; i<CodiceFiscale.LUNGHEZZA; i++) {
+            
+            char c = caratteri[i];
+            if(c >= 'a' && c <= 'z') {
+                c = (char)(c - 'a' + 'A');
+                caratteri[i] = c;
+            }
+            
+            boolean lettera = c >= 'A' && c <= 'Z';
+            if((FORMATO.charAt(i) == 'N' && (c >= 128 || CIFRE[c] < 0)) || (FORMATO.charAt(i) != 'N' && !lettera)) {
+                risultato.azzera(registro, ERROREFORMATO);
+                return false;
+            }
+        }
+        
+        int errori = 0;
+        
+        int anno = CIFRE[caratteri[Segmenti.ANNO]]*10 + CIFRE[caratteri[Segmenti.ANNO+1]];
+        anno += 2000 + anno <= Persona.annoCorrente() ? 2000 : 1900; //only the last 2 digits are in the code: the most recent year that isn't in the future
+        
+        int mese = MESI[caratteri[Segmenti.MESE]];
+        if(mese < 0) {
+            errori |= ERROREMESE;
+        }
+        
+        int giorno = CIFRE[caratteri[Segmenti.GIORNO]]*10 + CIFRE[caratteri[Segmenti.GIORNO+1]];
+        char sesso = 'M';
+        if(giorno > 40) { //for women 40 is added to the day
+            giorno -= 40;
+            sesso = 'F';
+        }
+        if(giorno < 1 || giorno > 31) {
+            errori |= ERROREGIORNO;
+        }
+        else if(mese > 0 && !Persona.isGiornoEsistente(giorno, mese, anno)) {
+            errori |= ERROREDATA;
+        }
+        
+        int numero = (caratteri[Segmenti.COMUNE]-'A')*1000 + CIFRE[caratteri[Segmenti.COMUNE+1]]*100 + CIFRE[caratteri[Segmenti.COMUNE+2]]*10 + CIFRE[caratteri[Segmenti.COMUNE+3]];
+        int comune = registro.cercaNumero(numero);
+        if(comune < 0) {
+            errori |= ERRORECOMUNE;
+        }
+        
+        if(caratteri[Segmenti.CONTROLLO] != Segmenti.carattereControllo(caratteri, 0)) {
+            errori |= ERRORECONTROLLO;
+        }
+        
+        risultato.imposta(registro, errori, anno, mese, giorno, sesso, comune);
+        
+        return errori == 0;
+    }
+    
+    static {
+        Arrays.fill(CIFRE, -1);
+        Arrays.fill(MESI, -1);
+        for (int i=0; i<10; i++) {
+            CIFRE['0'+i] = i;
+            CIFRE[Segmenti.OMOCODIA.charAt(i)] = i;
+        }
+        for (int i=0; i<12; i++) {
+            MESI[Segmenti.CODICEMESI.charAt(i)] = i+1;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.Arrays;
+
+/**
+ * Municipality index based on a minimal perfect hash function (hash and displace).
+ * Since the set of municipalities is known when the registry is loaded, every key can be given its own slot in an array of exactly n elements:
+ * the keys are split in small buckets, and for every bucket a displacement is searched so that all of its keys end up in free slots.
+ * A lookup then costs one hash of the key, one read of the displacement of its bucket and one comparison with the key stored in the slot,
+ * all on flat arrays, with no entry objects and no boxing.
+ * @author Pietro P.
+ */
+final class HashPerfetto implements IndiceComuni {
+    
+    private static final int CHIAVIPERSECCHIO = 4; //average number of keys in a bucket
+    private static final int MAXTENTATIVI = 64; //how many different seeds are tried before giving up
+    
+    private final int n; //number of keys, and so of slots
+    private final long seme; //seed of the hash function that allowed to place every key
+    private final int[] spostamenti; //displacement of every bucket, d0*n + d1
+    private final char[] chiavi; //"MUNICIPALITY,PROVINCE" keys of all the slots, one after the other, used to reject keys that aren't in the index
+    private final int[] inizioChiavi; //where the key of every slot starts in "chiavi" (the key of slot i ends where the key of slot i+1 starts)
+    private final int[] posizioni; //position in the registry of the key stored in every slot
+    
+    /**
+     * Builds the minimal perfect hash function for the given municipalities
+     * @param comuni municipality names, uppercase and without accents
+     * @param province province codes, uppercase
+     * @throws IllegalArgumentException if there are duplicate keys, or if no perfect hash function was found
+     */
+    HashPerfetto(String[] comuni, String[] province) {
+        
+        n = comuni.length;
+        if(n > 46340) { //d0*n + d1 must fit in an int
+            throw new IllegalArgumentException("Troppi comuni per l'indice.");
+        }
+        
+        int numeroSecchi = Math.max(1, (n + CHIAVIPERSECCHIO - 1) / CHIAVIPERSECCHIO);
+        long[] hash = new long[n];
+        
+        long semeTrovato = 0;
+        int[] spostamentiTrovati = null;
+        
+        for (int tentativo=0; tentativo<MAXTENTATIVI && spostamentiTrovati == null; tentativo++) { //if a seed doesn't work, another one is tried
+            
+            semeTrovato = 0x9E3779B97F4A7C15L * (tentativo + 1);
+            for (int i=0; i<n; i++) {
+                hash[i] = hash(semeTrovato, comuni[i], province[i]);
+            }
+            spostamentiTrovati = costruisci(hash, numeroSecchi);
+        }
+        
+        if(spostamentiTrovati == null) {
+            throw new IllegalArgumentException("Impossibile costruire l'indice dei comuni: chiavi duplicate?");
+        }
+        
+        this.seme = semeTrovato;
+        this.spostamenti = spostamentiTrovati;
+        this.posizioni = new int[n];
+        this.inizioChiavi = new int[n+1];
+        
+        for (int i=0; i<n; i++) { //every key is assigned to its own slot
+            int slot = slot(hash[i]);
+            posizioni[slot] = i;
+            inizioChiavi[slot+1] = comuni[i].length() + 1 + province[i].length();
+        }
+        for (int slot=0; slot<n; slot++) {
+            inizioChiavi[slot+1] += inizioChiavi[slot];
+        }
+        
+        this.chiavi = new char[inizioChiavi[n]];
+        for (int slot=0; slot<n; slot++) { //then the keys are copied one after the other, in the order of their slots
+            String chiave = comuni[posizioni[slot]] + ',' + province[posizioni[slot]];
+            chiave.getChars(0, chiave.length(), chiavi, inizioChiavi[slot]);
+        }
+    }
+    
+    /**
+     * Searches a displacement for every bucket, starting from the biggest ones (the hardest to place while the array is still mostly empty)
+     * @param hash hash of every key
+     * @param numeroSecchi number of buckets
+     * @return the displacement of every bucket, or null if some bucket couldn't be placed (or two keys have the same hash) with these hashes
+     */
+    private int[] costruisci(long[] hash, int numeroSecchi) {
+        
+        //keys are grouped by bucket with a counting sort: the keys of bucket s are membri[inizio[s]] ... membri[inizio[s+1]-1]
+        int[] inizio = new int[numeroSecchi+1];
+        for (long h : hash) {
+            inizio[secchio(h, numeroSecchi)+1]++;
+        }
+        int massimo = 0; //size of the biggest bucket
+        for (int s=0; s<numeroSecchi; s++) {
+            massimo = Math.max(massimo, inizio[s+1]);
+            inizio[s+1] += inizio[s];
+        }
+        if(massimo > CHIAVIPERSECCHIO*8) {
+            return null; //too many keys ended up in the same bucket with this seed
+        }
+        
+        int[] membri = new int[n];
+        int[] riempimento = Arrays.copyOf(inizio, numeroSecchi);
+        for (int i=0; i<n; i++) {
+            membri[riempimento[secchio(hash[i], numeroSecchi)]++] = i;
+        }
+        
+        //buckets are then sorted by size, from the biggest to the smallest (again with a counting sort)
+        int[] ordine = new int[numeroSecchi];
+        int posizione = 0;
+        for (int dimensione=massimo; dimensione>0; dimensione--) {
+            for (int s=0; s<numeroSecchi; s++) {
+                if(inizio[s+1] - inizio[s] == dimensione) {
+                    ordine[posizione++] = s;
+                }
+            }
+        }
+        
+        int[] risultato = new int[numeroSecchi];
+        boolean[] occupato = new boolean[n];
+        int[] primi = new int[massimo]; //starting slot of every key of the current bucket
+        int[] secondi = new int[massimo]; //step of every key of the current bucket
+        int[] slotSecchio = new int[massimo]; //slots of the keys of the current bucket with the displacement being tried
+        
+        for (int o=0; o<posizione; o++) {
+            
+            int s = ordine[o];
+            int k = inizio[s+1] - inizio[s];
+            
+            for (int j=0; j<k; j++) {
+                long h = hash[membri[inizio[s]+j]];
+                for (int l=0; l<j; l++) {
+                    if(hash[membri[inizio[s]+l]] == h) {
+                        return null; //two keys with the same hash can never be placed in different slots
+                    }
+                }
+                primi[j] = primo(h);
+                secondi[j] = secondo(h);
+            }
+            
+            boolean piazzato = false;
+            
+            for (int d0=0; d0<n && !piazzato; d0++) {
+                for (int d1=0; d1<n && !piazzato; d1++) {
+                    
+                    piazzato = true;
+                    for (int j=0; j<k; j++) {
+                        int slot = (int)((primi[j] + (long)d0*secondi[j] + d1) % n);
+                        
+                        if(occupato[slot] || contiene(slotSecchio, j, slot)) { //slot already taken, by another bucket or by this same bucket
+                            piazzato = false;
+                            break;
+                        }
+                        slotSecchio[j] = slot;
+                    }
+                    
+                    if(piazzato) {
+                        for (int j=0; j<k; j++) {
+                            occupato[slotSecchio[j]] = true;
+                        }
+                        risultato[s] = d0*n + d1;
+                    }
+                }
+            }
+            
+            if(!piazzato) {
+                return null;
+            }
+        }
+        
+        return risultato;
+    }
+    
+    @Override
+    public int cerca(CharSequence comune, CharSequence provincia) {
+        
+        if(n == 0) {
+            return -1;
+        }
+        
+        int slot = slot(hash(seme, comune, provincia));
+        
+        return uguale(slot, comune, provincia) ? posizioni[slot] : -1; //the slot of a key that isn't in the index is the one of another key
+    }
+    
+    /**
+     * Finds the slot of a key from its hash, using the displacement of its bucket
+     * @param h hash of the key
+     * @return slot of the key, from 0 to n-1
+     */
+    private int slot(long h) {
+        
+        int spostamento = spostamenti[secchio(h, spostamenti.length)];
+        int d0 = spostamento / n;
+        int d1 = spostamento % n;
+        
+        return (int)((primo(h) + (long)d0*secondo(h) + d1) % n);
+    }
+    
+    /**
+     * @return the bucket of a key, taken from the lowest 21 bits of the hash
+     */
+    private static int secchio(long h, int numeroSecchi) {
+        return (int)((h & 0x1FFFFF) % numeroSecchi);
+    }
+    
+    /**
+     * @return the starting slot of a key, taken from the middle 21 bits of the hash
+     */
+    private int primo(long h) {
+        return (int)(((h >>> 21) & 0x1FFFFF) % n);
+    }
+    
+    /**
+     * @return the step of a key, used with the first part of the displacement, taken from the highest 22 bits of the hash
+     */
+    private int secondo(long h) {
+        return (int)((h >>> 42) % n);
+    }
+    
+    /**
+     * Hashes a "MUNICIPALITY,PROVINCE" key without building it, ignoring the case of ASCII letters
+     * @param seme seed of the hash function
+     * @param comune municipality, without accents
+     * @param provincia province code
+     * @return 64-bit hash of the key
+     */
+    private static long hash(long seme, CharSequence comune, CharSequence provincia) {
+        
+        long h = seme;
+        
+        for (int i=0; i<comune.length(); i++) {
+            h = (h ^ maiuscola(comune.charAt(i))) * 0x100000001B3L; //FNV-1a step
+        }
+        h = (h ^ ',') * 0x100000001B3L;
+        for (int i=0; i<provincia.length(); i++) {
+            h = (h ^ maiuscola(provincia.charAt(i))) * 0x100000001B3L;
+        }
+        
+        //final mix (from MurmurHash3), so that every bit of the result depends on every character
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        
+        return h;
+    }
+    
+    /**
+     * Compares the key stored in a slot with the municipality and province of a lookup, ignoring the case of ASCII letters
+     * @param slot slot of the key to compare
+     * @param comune municipality, without accents
+     * @param provincia province code
+     * @return true if they are the same key
+     */
+    private boolean uguale(int slot, CharSequence comune, CharSequence provincia) {
+        
+        int inizio = inizioChiavi[slot];
+        int lunghezza = comune.length();
+        
+        if(inizioChiavi[slot+1] - inizio != lunghezza + 1 + provincia.length() || chiavi[inizio+lunghezza] != ',') {
+            return false;
+        }
+        for (int i=0; i<lunghezza; i++) {
+            if(chiavi[inizio+i] != maiuscola(comune.charAt(i))) {
+                return false;
+            }
+        }
+        for (int i=0; i<provincia.length(); i++) {
+            if(chiavi[inizio+lunghezza+1+i] != maiuscola(provincia.charAt(i))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return the uppercase version of an ASCII letter, any other character is returned as it is
+     */
+    private static char maiuscola(char c) {
+        return c >= 'a' && c <= 'z' ? (char)(c - 32) : c;
+    }
+    
+    /**
+     * @return true if one of the first "lunghezza" elements of the array is equal to "valore"
+     */
+    private static boolean contiene(int[] array, int lunghezza, int valore) {
+        
+        for (int i=0; i<lunghezza; i++) {
+            if(array[i] == valore) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+/**
+ * Strategy used by {@link RegistroComuni} to find the position of a municipality starting from its name and province.
+ * Implementations are built once when the registry is loaded and are never modified after, so they can be read by any number of threads.
+ * @author Pietro P.
+ */
+interface IndiceComuni {
+    
+    /**
+     * Searches the municipality with the given name and province
+     * @param comune municipality, already without accents, the case of ASCII letters is ignored
+     * @param provincia province code, case is ignored
+     * @return the position of the municipality in the registry, or -1 if it doesn't exist
+     */
+    int cerca(CharSequence comune, CharSequence provincia);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.HashMap;
+
+/**
+ * Municipality index based on a plain {@link HashMap} from the "MUNICIPALITY,PROVINCE" key to the position in the registry
+ * @author Pietro P.
+ */
+final class IndiceHashMap implements IndiceComuni {
+    
+    private final HashMap<String, Integer> mappa;
+    
+    /**
+     * Constructs the index from the already normalized municipality names and their province codes
+     * @param comuni municipality names, uppercase and without accents
+     * @param province province codes, uppercase
+     */
+    IndiceHashMap(String[] comuni, String[] province) {
+        
+        mappa = new HashMap<>(comuni.length*2);
+        
+        for (int i=0; i<comuni.length; i++) {
+            mappa.put(comuni[i] + ',' + province[i], i);
+        }
+    }
+    
+    @Override
+    public int cerca(CharSequence comune, CharSequence provincia) {
+        
+        Integer posizione = mappa.get(comune.toString().toUpperCase() + ',' + provincia.toString().toUpperCase());
+        
+        return posizione == null ? -1 : posizione;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.Arrays;
+
+/**
+ * Index of the municipalities sorted by normalized name (and province), to find all the names that start with a text:
+ * they're all next to each other, so a binary search finds the first one and the others follow, in time proportional to the results and not to the registry.
+ * Built once by {@link RegistroComuni} and never modified after, so it can be read by any number of threads.
+ * @author Pietro P.
+ */
+final class IndicePrefissi {
+    
+    private final String[] nomi; //normalized municipality names, sorted
+    private final String[] province; //province codes, in the same order
+    private final int[] posizioni; //position in the registry of every name
+    
+    /**
+     * Builds the index
+     * @param comuni normalized municipality names (uppercase, without accents), in the order of the registry
+     * @param province uppercase province codes, in the order of the registry
+     */
+    IndicePrefissi(String[] comuni, String[] province) {
+        
+        Integer[] ordine = new Integer[comuni.length];
+        for (int i=0; i<ordine.length; i++) {
+            ordine[i] = i;
+        }
+        Arrays.sort(ordine, (a, b) -> {
+            int confronto = comuni[a].compareTo(comuni[b]);
+            return confronto != 0 ? confronto : province[a].compareTo(province[b]);
+        });
+        
+        this.nomi = new String[ordine.length];
+        this.province = new String[ordine.length];
+        this.posizioni = new int[ordine.length];
+        for (int i=0; i<ordine.length; i++) {
+            this.nomi[i] = comuni[ordine[i]];
+            this.province[i] = province[ordine[i]];
+            this.posizioni[i] = ordine[i];
+        }
+    }
+    
+    /**
+     * Finds the municipalities whose name starts with a text, in alphabetical order (so a name equal to the text comes first)
+     * @param prefisso normalized start of the name
+     * @param limite maximum number of results
+     * @return positions in the registry
+     */
+    int[] cerca(String prefisso, int limite) {
+        
+        int primo = primo(prefisso);
+        int ultimo = primo;
+        while(ultimo < nomi.length && ultimo-primo < limite && nomi[ultimo].startsWith(prefisso)) {
+            ultimo++;
+        }
+        
+        return Arrays.copyOfRange(posizioni, primo, ultimo);
+    }
+    
+    /**
+     * Finds the municipalities with a name and whose province code starts with a text
+     * @param nome normalized name
+     * @param provincia start of the uppercase province code
+     * @param limite maximum number of results
+     * @return positions in the registry
+     */
+    int[] cerca(String nome, String provincia, int limite) {
+        
+        int[] risultati = new int[0];
+        for (int i=primo(nome); i<nomi.length && risultati.length < limite && nomi[i].equals(nome); i++) { //municipalities with the same name are only a few
+            if(province[i].startsWith(provincia)) {
+                risultati = Arrays.copyOf(risultati, risultati.length+1);
+                risultati[risultati.length-1] = posizioni[i];
+            }
+        }
+        
+        return risultati;
+    }
+    
+    /**
+     * Binary search of the first name that isn't smaller than a text
+     * @param testo normalized text
+     * @return position in "nomi", or its length if all the names are smaller
+     */
+    private int primo(String testo) {
+        
+        int da = 0;
+        int a = nomi.length;
+        
+        while(da < a) {
+            int centro = (da+a) >>> 1;
+            if(nomi[centro].compareTo(testo) < 0) {
+                da = centro+1;
+            }
+            else {
+                a = centro;
+            }
+        }
+        
+        return da;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Headless batch job that generates the fiscal codes of all the people in a delimited text file (UTF-8), without the UI.
+ * Every row of the input has 8 fields: surname, name, birth year, month, day, sex, municipality and province code.
+ * Every row of the output is the input row followed by the fiscal code, or by "ERRORE:" and the messages of the errors found.
+ * <p>
+ * The file is read and written in blocks of {@link #RIGHEPERBLOCCO} rows, so the memory used doesn't depend on the size of the file.
+ * After every block the output is forced to disk and a checkpoint with the byte offsets reached in both files is saved:
+ * if the job is stopped, running it again with the same files resumes from the last checkpoint instead of starting over.
+ * The checkpoint is deleted when the job ends.
+ * @author Pietro P.
+ */
+public final class LavoroLotto {
+    
+    /**
+     * Number of rows processed between two checkpoints
+     */
+    public static final int RIGHEPERBLOCCO = 10000;
+    
+    /**
+     * Default field separator
+     */
+    public static final char SEPARATORE = ',';
+    
+    private static final int CAMPI = 8; //fields of every input row
+    private static final String ERRORE = "ERRORE:"; //written instead of the code when the row isn't valid
+    private static final String ERRORECAMPI = "Numero di campi errato."; //message of the rows that don't have 8 fields
+    
+    private final File ingresso; //file with the people
+    private final File uscita; //file with the codes
+    private final File checkpoint; //file with the offsets reached by the last completed block
+    private final char separatore; //field separator, used both in input and output
+    private final Codificatore codificatore; //encoder shared with the rest of the process
+    private final Pattern divisore; //splits the rows in fields
+    
+    private final char[] codice = new char[CodiceFiscale.LUNGHEZZA]; //code of the current row
+    private final StringBuilder riga = new StringBuilder(); //output row
+    private byte[] lettura = new byte[1 << 16]; //input bytes not yet split in rows
+    private int inizioLettura; //first byte of "lettura" not yet used
+    private int fineLettura; //position after the last byte read in "lettura"
+    
+    /**
+     * Constructs a job that uses the default encoder (and so the registry of {@link CodiceFiscale}) and the default separator
+     * @param ingresso file with the people
+     * @param uscita file in which the codes are written
+     * @param checkpoint file in which the progress is saved
+     * @throws Exception if the registry of the municipalities can't be loaded
+     */
+    public LavoroLotto(File ingresso, File uscita, File checkpoint) throws Exception {
+        this(ingresso, uscita, checkpoint, SEPARATORE, Codificatore.getPredefinito());
+    }
+    
+    /**
+     * Constructs a job
+     * @param ingresso file with the people
+     * @param uscita file in which the codes are written
+     * @param checkpoint file in which the progress is saved
+     * @param separatore field separator, used both in input and output
+     * @param codificatore encoder used for every row
+     */
+    public LavoroLotto(File ingresso, File uscita, File checkpoint, char separatore, Codificatore codificatore) {
+        
+        this.ingresso = ingresso;
+        this.uscita = uscita;
+        this.checkpoint = checkpoint;
+        this.separatore = separatore;
+        this.codificatore = codificatore;
+        this.divisore = Pattern.compile(Pattern.quote(String.valueOf(separatore)));
+    }
+    
+    /**
+     * Runs the job: if a checkpoint exists the job resumes from there, otherwise the output file is overwritten
+     * @return number of rows processed by this run
+     * @throws IOException if a file can't be read or written, or if the checkpoint isn't valid
+     */
+    public long esegui() throws IOException {
+        
+        long posizioneIngresso = 0; //first byte of the input not yet processed
+        long posizioneUscita = 0; //first byte of the output not yet committed
+        
+        if(checkpoint.exists()) {
+            Properties stato = new Properties();
+            try (InputStream input = new FileInputStream(checkpoint)) {
+                stato.load(input);
+            }
+            try {
+                posizioneIngresso = Long.parseLong(stato.getProperty("ingresso"));
+                posizioneUscita = Long.parseLong(stato.getProperty("uscita"));
+            }
+            catch(NumberFormatException e) {
+                throw new IOException("Checkpoint non valido: " + checkpoint, e);
+            }
+            if(posizioneIngresso > ingresso.length() || posizioneUscita > uscita.length()) {
+                throw new IOException("Il checkpoint non corrisponde ai file: " + checkpoint);
+            }
+        }
+        
+        long righe = 0;
+        inizioLettura = fineLettura = 0;
+        
+        try (FileInputStream input = new FileInputStream(ingresso); FileOutputStream output = new FileOutputStream(uscita, posizioneUscita > 0)) {
+            
+            //rows written after the last checkpoint are thrown away, they'll be written again
+            output.getChannel().truncate(posizioneUscita);
+            output.getChannel().position(posizioneUscita);
+            input.getChannel().position(posizioneIngresso);
+            
+            byte[] scrittura = new byte[1 << 16]; //output bytes not yet written
+            int fineScrittura = 0;
+            boolean finito = false;
+            
+            while(!finito) {
+                
+                int righeBlocco = 0;
+                
+                while(righeBlocco < RIGHEPERBLOCCO) {
+                    
+                    int fine = prossimaRiga(input);
+                    if(fine < 0) {
+                        finito = true;
+                        break;
+                    }
+                    
+                    int lunghezza = fine - inizioLettura; //length of the row, without '\n'
+                    posizioneIngresso += lunghezza + (fine < fineLettura ? 1 : 0);
+                    if(lunghezza > 0 && lettura[fine-1] == '\r') {
+                        lunghezza--;
+                    }
+                    String testo = new String(lettura, inizioLettura, lunghezza, StandardCharsets.UTF_8);
+                    inizioLettura = Math.min(fine+1, fineLettura);
+                    
+                    if(testo.isBlank()) { //empty rows are copied as they are
+                        riga.setLength(0);
+                    }
+                    else {
+                        elabora(testo);
+                    }
+                    riga.append('\n');
+                    
+                    byte[] bytes = riga.toString().getBytes(StandardCharsets.UTF_8);
+                    if(fineScrittura + bytes.length > scrittura.length) {
+                        output.write(scrittura, 0, fineScrittura);
+                        fineScrittura = 0;
+                    }
+                    if(bytes.length > scrittura.length) {
+                        output.write(bytes);
+                    }
+                    else {
+                        System.arraycopy(bytes, 0, scrittura, fineScrittura, bytes.length);
+                        fineScrittura += bytes.length;
+                    }
+                    posizioneUscita += bytes.length;
+                    righeBlocco++;
+                }
+                
+                //the block is committed: first the output reaches the disk, then the checkpoint that points after it
+                output.write(scrittura, 0, fineScrittura);
+                fineScrittura = 0;
+                output.getChannel().force(false);
+                righe += righeBlocco;
+                
+                if(!finito) {
+                    salvaCheckpoint(posizioneIngresso, posizioneUscita);
+                }
+            }
+        }
+        
+        Files.deleteIfExists(checkpoint.toPath());
+        
+        return righe;
+    }
+    
+    /**
+     * Finds the end of the next row of the input, reading more bytes if needed
+     * @param input input file
+     * @return position in "lettura" of the '\n' that ends the row (or "fineLettura" if the last row of the file doesn't end with '\n'), -1 if the file is over
+     * @throws IOException if the file can't be read
+     */
+    private int prossimaRiga(InputStream input) throws IOException {
+        
+        int cerca = inizioLettura; //first byte not yet searched
+        
+        while(true) {
+            
+            for (; cerca<fineLettura; cerca++) {
+                if(lettura[cerca] == '\n') {
+                    return cerca;
+                }
+            }
+            
+            //the row continues after the bytes read so far: the unused bytes are moved to the start of the array (which grows only if a single row doesn't fit)
+            int rimasti = fineLettura - inizioLettura;
+            if(rimasti == lettura.length) {
+                lettura = Arrays.copyOf(lettura, lettura.length*2);
+            }
+            System.arraycopy(lettura, inizioLettura, lettura, 0, rimasti);
+            inizioLettura = 0;
+            fineLettura = rimasti;
+            cerca = rimasti;
+            
+            int letti = input.read(lettura, fineLettura, lettura.length-fineLettura);
+            if(letti < 0) {
+                return rimasti > 0 ? fineLettura : -1;
+            }
+            fineLettura += letti;
+        }
+    }
+    
+    /**
+     * Generates the code of a row and puts the output row in "riga"
+     * @param testo input row
+     */
+    private void elabora(String testo) {
+        
+        riga.setLength(0);
+        riga.append(testo).append(separatore);
+        
+        String[] campi = divisore.split(testo, -1);
+        if(campi.length != CAMPI) {
+            riga.append(ERRORE).append(' ').append(ERRORECAMPI);
+            return;
+        }
+        
+        String cognome = campi[0].trim();
+        String nome = campi[1].trim();
+        String comune = campi[6].trim();
+        String provincia = campi[7].trim().toUpperCase();
+        int anno = numero(campi[2]);
+        int mese = numero(campi[3]);
+        int giorno = numero(campi[4]);
+        String sesso = campi[5].trim();
+        
+        int errori = codificatore.valida(cognome, nome, anno, mese, giorno, sesso.length() == 1 ? sesso.charAt(0) : ' ', comune, provincia);
+        
+        if(errori == 0) {
+            try {
+                codificatore.codifica(cognome, nome, anno, mese, giorno, Character.toUpperCase(sesso.charAt(0)), comune, provincia, codice, 0);
+                riga.append(codice);
+                return;
+            }
+            catch(Exception e) { //can't happen after a successful validation, but the row is reported anyway
+                riga.append(ERRORE).append(' ').append(e.getMessage());
+                return;
+            }
+        }
+        
+        riga.append(ERRORE);
+        for (String messaggio : Persona.messaggi(errori)) {
+            riga.append(' ').append(messaggio);
+        }
+    }
+    
+    /**
+     * Converts a numeric field
+     * @param campo field
+     * @return the number, or -1 (never valid) if the field isn't a number
+     */
+    private static int numero(String campo) {
+        
+        try {
+            return Integer.parseInt(campo.trim());
+        }
+        catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Saves the checkpoint in a temporary file, then replaces the old one with it, so that a job stopped while saving never leaves a half-written checkpoint
+     * @param posizioneIngresso first byte of the input not yet processed
+     * @param posizioneUscita first byte of the output not yet committed
+     * @throws IOException if the checkpoint can't be written
+     */
+    private void salvaCheckpoint(long posizioneIngresso, long posizioneUscita) throws IOException {
+        
+        Properties stato = new Properties();
+        stato.setProperty("ingresso", Long.toString(posizioneIngresso));
+        stato.setProperty("uscita", Long.toString(posizioneUscita));
+        
+        File temporaneo = new File(checkpoint.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporaneo)) {
+            stato.store(output, "Checkpoint di " + ingresso.getName());
+            output.getFD().sync();
+        }
+        
+        Files.move(temporaneo.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Runs a job from the command line
+     * @param args input file, output file and optionally the checkpoint file (by default the output file followed by ".checkpoint") and the field separator
+     */
+    public static void main(String[] args) {
+        
+        if(args.length < 2 || args.length > 4 || (args.length == 4 && args[3].length() != 1)) {
+            System.err.println("Uso: LavoroLotto <ingresso> <uscita> [checkpoint] [separatore]");
+            System.exit(2);
+        }
+        
+        File uscita = new File(args[1]);
+        File checkpoint = new File(args.length > 2 ? args[2] : args[1] + ".checkpoint");
+        
+        try {
+            char separatore = args.length > 3 ? args[3].charAt(0) : SEPARATORE;
+            long righe = new LavoroLotto(new File(args[0]), uscita, checkpoint, separatore, Codificatore.getPredefinito()).esegui();
+            System.out.println("Righe elaborate: " + righe);
+        }
+        catch(Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads very big text files (UTF-8, one record per row) by mapping them in memory with {@link FileChannel#map}, without decoding them into strings.
+ * The file is split in regions that start and end on row boundaries, so every region can be read by a different thread.
+ * Rows and fields are passed around as positions in the mapped bytes: a field becomes a string only when it has non-ASCII characters.
+ * It can check files of fiscal codes (one per row) and generate the codes of files of people (the same rows as {@link LavoroLotto}).
+ * @author Pietro P.
+ */
+public final class LettoreMappato {
+    
+    /**
+     * Maximum size of a region, in bytes: a single mapping can't be bigger than 2GB
+     */
+    public static final int MASSIMAREGIONE = 1 << 30;
+    
+    private static final String FORMATO = "LLLLLLNNMNNLNNNL"; //what every character of a fiscal code can be: L letter, N digit (or omocodia letter), M month letter
+    private static final boolean[] OMOCODIA = new boolean[26]; //letters that can replace digits (omocodia): L = 0, M = 1, ... V = 9
+    private static final boolean[] MESI = new boolean[26]; //letters of the months
+    
+    private final File file; //file to read
+    private final long dimensione; //size of the file, in bytes
+    
+    /**
+     * Constructs a reader for a file
+     * @param file file to read
+     * @throws IOException if the file can't be opened
+     */
+    public LettoreMappato(File file) throws IOException {
+        
+        this.file = file;
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.dimensione = canale.size();
+        }
+    }
+    
+    /**
+     * Returns the size of the file
+     * @return size of the file, in bytes
+     */
+    public long getDimensione() {
+        return dimensione;
+    }
+    
+    /**
+     * Splits the file in regions of about the same size, every region ending after a '\n' (or at the end of the file)
+     * @param parti number of regions wanted, more regions are created if they would be bigger than {@link #MASSIMAREGIONE}
+     * @return the regions, in the same order as in the file
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if "parti" isn't positive
+     */
+    public List<Regione> dividi(int parti) throws IOException {
+        
+        if(parti < 1) {
+            throw new IllegalArgumentException("Il numero di parti deve essere positivo.");
+        }
+        
+        long passo = Math.max(1, Math.min((dimensione + parti - 1) / parti, MASSIMAREGIONE));
+        List<Regione> regioni = new ArrayList<>(parti);
+        ByteBuffer lettura = ByteBuffer.allocate(4096);
+        
+        try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            
+            long inizio = 0;
+            
+            while(inizio < dimensione) {
+                
+                long fine = Math.min(inizio + passo, dimensione);
+                
+                //the region is extended until the end of the row it cut
+                boolean trovato = fine == dimensione;
+                while(!trovato) {
+                    lettura.clear();
+                    int letti = canale.read(lettura, fine-1);
+                    if(letti <= 0) {
+                        fine = dimensione;
+                        break;
+                    }
+                    for (int i=0; i<letti && !trovato; i++) {
+                        if(lettura.get(i) == '\n') {
+                            fine = fine + i;
+                            trovato = true;
+                        }
+                    }
+                    if(!trovato) {
+                        fine = Math.min(fine + letti, dimensione);
+                        trovato = fine == dimensione;
+                    }
+                }
+                if(fine - inizio > Integer.MAX_VALUE) {
+                    throw new IOException("Riga troppo lunga in " + file);
+                }
+                
+                regioni.add(new Regione(inizio, fine));
+                inizio = fine;
+            }
+        }
+        
+        return regioni;
+    }
+    
+    /**
+     * Checks a file of fiscal codes, one per row, splitting it in a region per thread.
+     * Empty rows are skipped, spaces around the code aren't allowed
+     * @param esecutore threads that check the regions
+     * @param parti number of regions
+     * @param gestore if not null, receives every row that isn't a valid fiscal code (it must be usable by more threads at the same time)
+     * @return number of rows that aren't valid fiscal codes
+     * @throws IOException if the file can't be read
+     * @throws InterruptedException if the thread is interrupted while waiting for the regions
+     */
+    public long validaCodici(ExecutorService esecutore, int parti, GestoreRighe gestore) throws IOException, InterruptedException {
+        
+        List<Callable<Long>> compiti = new ArrayList<>();
+        for (Regione regione : dividi(parti)) {
+            compiti.add(() -> regione.validaCodici(gestore));
+        }
+        
+        long nonValidi = 0;
+        
+        for (Future<Long> risultato : esecutore.invokeAll(compiti)) {
+            try {
+                nonValidi += risultato.get();
+            }
+            catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        
+        return nonValidi;
+    }
+    
+    /**
+     * Checks whether 16 bytes are a valid fiscal code: letters and digits in the right places (digits can be replaced by the omocodia letters),
+     * a letter of a month and the correct control character
+     * @param dati buffer containing the code
+     * @param inizio position of the first byte of the code
+     * @return true if the code is valid
+     */
+    static boolean isCodiceValido(ByteBuffer dati, int inizio) {
+        
+        for (int i=0; i<CodiceFiscale.LUNGHEZZA; i++) {
+            
+            int c = dati.get(inizio+i);
+            boolean lettera = c >= 'A' && c <= 'Z';
+            
+            switch(FORMATO.charAt(i)) {
+                case 'L':
+                    if(!lettera) {
+                        return false;
+                    }
+                    break;
+                case 'N':
+                    if(!(c >= '0' && c <= '9') && !(lettera && OMOCODIA[c-'A'])) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if(!lettera || !MESI[c-'A']) {
+                        return false;
+                    }
+            }
+        }
+        
+        return dati.get(inizio+Segmenti.CONTROLLO) == Segmenti.carattereControllo(dati, inizio);
+    }
+    
+    /**
+     * Receives the rows of a region. Positions are relative to the start of the region
+     */
+    public interface GestoreRighe {
+        
+        /**
+         * Called for a row
+         * @param dati bytes of the region, must not be kept after the call
+         * @param inizio position of the first byte of the row
+         * @param fine position after the last byte of the row (without '\r' and '\n')
+         */
+        void riga(ByteBuffer dati, int inizio, int fine);
+    }
+    
+    /**
+     * Receives the result of every row of people
+     */
+    public interface GestoreCodici {
+        
+        /**
+         * Called for every row that isn't empty
+         * @param dati bytes of the region, must not be kept after the call
+         * @param inizio position of the first byte of the row
+         * @param fine position after the last byte of the row (without '\r' and '\n')
+         * @param codice the generated fiscal code, valid only during the call and only if there are no errors
+         * @param errori 0 if the code was generated, otherwise the sum of the Persona.ERRORE... constants of the errors found, or -1 if the row doesn't have 8 fields
+         */
+        void codice(ByteBuffer dati, int inizio, int fine, char[] codice, int errori);
+    }
+    
+    /**
+     * Part of the file made only by whole rows, mapped in memory only while it's read
+     */
+    public final class Regione {
+        
+        private final long inizio; //first byte of the region in the file
+        private final long fine; //position after the last byte of the region in the file
+        
+        private Regione(long inizio, long fine) {
+            
+            this.inizio = inizio;
+            this.fine = fine;
+        }
+        
+        /**
+         * Returns where the region starts
+         * @return position of the first byte of the region in the file
+         */
+        public long getInizio() {
+            return inizio;
+        }
+        
+        /**
+         * Returns where the region ends
+         * @return position after the last byte of the region in the file
+         */
+        public long getFine() {
+            return fine;
+        }
+        
+        /**
+         * Reads every row of the region
+         * @param gestore receives every row, empty ones included
+         * @throws IOException if the file can't be mapped
+         */
+        public void leggi(GestoreRighe gestore) throws IOException {
+            
+            MappedByteBuffer dati = mappa();
+            int lunghezza = dati.limit();
+            int riga = 0; //start of the current row
+            
+            for (int i=0; i<=lunghezza; i++) {
+                if(i == lunghezza || dati.get(i) == '\n') {
+                    if(i > riga || i < lunghezza) {
+                        gestore.riga(dati, riga, i > riga && dati.get(i-1) == '\r' ? i-1 : i);
+                    }
+                    riga = i+1;
+                }
+            }
+        }
+        
+        /**
+         * Checks every row of the region as a fiscal code, without creating any object per row
+         * @param gestore if not null, receives every row that isn't a valid fiscal code
+         * @return number of rows that aren't valid fiscal codes
+         * @throws IOException if the file can't be mapped
+         */
+        public long validaCodici(GestoreRighe gestore) throws IOException {
+            
+            long[] nonValidi = new long[1];
+            
+            leggi((dati, inizioRiga, fineRiga) -> {
+                if(fineRiga > inizioRiga && (fineRiga-inizioRiga != CodiceFiscale.LUNGHEZZA || !isCodiceValido(dati, inizioRiga))) {
+                    nonValidi[0]++;
+                    if(gestore != null) {
+                        gestore.riga(dati, inizioRiga, fineRiga);
+                    }
+                }
+            });
+            
+            return nonValidi[0];
+        }
+        
+        /**
+         * Generates the fiscal codes of every row of people of the region, reading the fields directly from the mapped bytes.
+         * Rows have the same 8 fields as {@link LavoroLotto}; empty rows are skipped
+         * @param codificatore encoder used for every row
+         * @param separatore field separator (an ASCII character)
+         * @param gestore receives the result of every row
+         * @throws IOException if the file can't be mapped
+         */
+        public void codifica(Codificatore codificatore, char separatore, GestoreCodici gestore) throws IOException {
+            
+            Campo[] campi = new Campo[8];
+            for (int i=0; i<campi.length; i++) {
+                campi[i] = new Campo();
+            }
+            char[] codice = new char[CodiceFiscale.LUNGHEZZA];
+            RegistroComuni registro = codificatore.getRegistro();
+            
+            leggi((dati, inizioRiga, fineRiga) -> {
+                
+                if(fineRiga == inizioRiga) {
+                    return;
+                }
+                if(Campo.dividi(dati, inizioRiga, fineRiga, (byte)separatore, campi) != campi.length) {
+                    gestore.codice(dati, inizioRiga, fineRiga, codice, -1);
+                    return;
+                }
+                
+                CharSequence cognome = campi[0].testo();
+                CharSequence nome = campi[1].testo();
+                int anno = campi[2].numero();
+                int mese = campi[3].numero();
+                int giorno = campi[4].numero();
+                char sesso = campi[5].length() == 1 ? campi[5].charAt(0) : ' ';
+                CharSequence comune = campi[6].testo();
+                CharSequence provincia = campi[7];
+                
+                int errori = Persona.valida(cognome, nome, anno, mese, giorno, sesso, comune, provincia);
+                int posizione = -1;
+                if((errori & (Persona.ERRORECOMUNE|Persona.ERROREPROVINCIA)) == 0) {
+                    posizione = registro.cerca(comune, provincia, anno, mese, giorno);
+                    if(posizione < 0) {
+                        errori |= codificatore.erroreComune(comune, provincia);
+                    }
+                }
+                
+                if(errori == 0) {
+                    codificatore.scrivi(cognome, nome, anno, mese, giorno, Character.toUpperCase(sesso), posizione, codice, 0);
+                }
+                gestore.codice(dati, inizioRiga, fineRiga, codice, errori);
+            });
+        }
+        
+        /**
+         * Maps the region in memory. The mapping stays valid after the channel is closed, and is released by the garbage collector
+         * @return the bytes of the region
+         * @throws IOException if the file can't be mapped
+         */
+        private MappedByteBuffer mappa() throws IOException {
+            
+            try (FileChannel canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return canale.map(FileChannel.MapMode.READ_ONLY, inizio, fine-inizio);
+            }
+        }
+    }
+    
+    /**
+     * Field of a row, seen as text directly on the mapped bytes (without spaces around it).
+     * Its characters are the bytes themselves, so it's a correct text only if it's ASCII: {@link #testo()} returns a decoded string otherwise.
+     * The same object is reused for every row
+     */
+    static final class Campo implements CharSequence {
+        
+        private ByteBuffer dati; //bytes of the region
+        private int inizio; //first byte of the field
+        private int fine; //position after the last byte of the field
+        private boolean ascii; //true if every byte is an ASCII character
+        
+        /**
+         * Splits a row in fields, reusing the given objects
+         * @param dati bytes of the region
+         * @param inizio first byte of the row
+         * @param fine position after the last byte of the row
+         * @param separatore field separator
+         * @param campi objects in which the fields are stored
+         * @return number of fields of the row, can be more than the length of "campi" (extra fields aren't stored)
+         */
+        static int dividi(ByteBuffer dati, int inizio, int fine, byte separatore, Campo[] campi) {
+            
+            int numero = 0;
+            int campo = inizio; //start of the current field
+            
+            for (int i=inizio; i<=fine; i++) {
+                if(i == fine || dati.get(i) == separatore) {
+                    if(numero < campi.length) {
+                        campi[numero].imposta(dati, campo, i);
+                    }
+                    numero++;
+                    campo = i+1;
+                }
+            }
+            
+            return numero;
+        }
+        
+        /**
+         * Makes the object point to another field, removing the spaces and control characters around it, like String.trim()
+         */
+        private void imposta(ByteBuffer dati, int inizio, int fine) {
+            
+            //in UTF-8 the bytes up to ' ' are only used by the characters up to ' ', so they can be compared one by one
+            while(inizio < fine && (dati.get(inizio) & 0xFF) <= ' ') {
+                inizio++;
+            }
+            while(fine > inizio && (dati.get(fine-1) & 0xFF) <= ' ') {
+                fine--;
+            }
+            
+            boolean soloAscii = true;
+            for (int i=inizio; i<fine && soloAscii; i++) {
+                soloAscii = dati.get(i) >= 0;
+            }
+            
+            this.dati = dati;
+            this.inizio = inizio;
+            this.fine = fine;
+            this.ascii = soloAscii;
+        }
+        
+        /**
+         * Returns the field as text: the field itself if it's ASCII, otherwise a string decoded from UTF-8
+         * @return the text of the field
+         */
+        CharSequence testo() {
+            return ascii ? this : toString();
+        }
+        
+        /**
+         * Converts the field to a positive number, without creating a string
+         * @return the number, or -1 if the field isn't a number (or is too long to be a valid one)
+         */
+        int numero() {
+            
+            if(fine == inizio || fine-inizio > 9) {
+                return -1;
+            }
+            
+            int numero = 0;
+            for (int i=inizio; i<fine; i++) {
+                int cifra = dati.get(i) - '0';
+                if(cifra < 0 || cifra > 9) {
+                    return -1;
+                }
+                numero = numero*10 + cifra;
+            }
+            
+            return numero;
+        }
+        
+        @Override
+        public int length() {
+            return fine-inizio;
+        }
+        
+        @Override
+        public char charAt(int indice) {
+            return (char)(dati.get(inizio+indice) & 0xFF);
+        }
+        
+        @Override
+        public CharSequence subSequence(int da, int a) {
+            return toString().substring(da, a);
+        }
+        
+        @Override
+        public String toString() {
+            
+            byte[] bytes = new byte[fine-inizio];
+            for (int i=0; i<bytes.length; i++) {
+                bytes[i] = dati.get(inizio+i);
+            }
+            
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+    
+    static {
+        for (char c : Segmenti.OMOCODIA.toCharArray()) {
+            OMOCODIA[c-'A'] = true;
+        }
+        for (char c : Segmenti.CODICEMESI.toCharArray()) {
+            MESI[c-'A'] = true;
+        }
+    }
+}
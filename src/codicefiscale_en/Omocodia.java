@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.Arrays;
+
+/**
+ * Omocodia: when two people would have the same fiscal code, the Agenzia delle Entrate replaces some of the digits of the newer code
+ * (positions 7, 8, 10, 11, 13, 14 and 15, counting from 1) with the letters LMNPQRSTUV (0: L, 1: M, ...) and recomputes the control character.
+ * Every code has 127 variants, identified by the bits of an index from 1 to 127: bit 0 replaces the last digit (position 15), bit 6 the first one (position 7),
+ * so the official sequence (first the last digit, then the last two, ...) is 1, 3, 7, 15, ... and index 0 is the base code.
+ * The control character of a variant is obtained from the one of the base code by adding the difference of value of every replaced character,
+ * without summing the whole code again. Nothing is allocated, the codes are read and written in char arrays.
+ * @author Pietro P.
+ */
+public final class Omocodia {
+    
+    /**
+     * Number of variants of every code (base code excluded)
+     */
+    public static final int VARIANTI = 127;
+    
+    private static final int[] POSIZIONI = {14, 13, 12, 10, 9, 7, 6}; //position in the code of the digit replaced by every bit of the index
+    private static final int[] DIFFERENZE = new int[POSIZIONI.length*10]; //difference in the control sum when the digit d is replaced in the position of bit b: DIFFERENZE[b*10+d]
+    private static final int[] CIFRE = new int[128]; //value of every digit and omocodia letter (uppercase or lowercase), -1 for the other characters
+    
+    private Omocodia() {
+    }
+    
+    /**
+     * Writes a variant of a code. The code can be the base one or any of its variants
+     * @param codice array containing the code, with digits or omocodia letters in the positions that can be replaced
+     * @param inizio position of the first character of the code in the array
+     * @param indice index of the variant, from 0 (base code) to 127
+     * @param destinazione array in which the variant is written (it can be the same array of the code)
+     * @param inizioDestinazione position of the first character of the variant in the array
+     * @return false if the code can't have variants (a replaceable position has a character that isn't a digit or an omocodia letter),
+     *         in that case nothing is written
+     * @throws IllegalArgumentException if the index isn't between 0 and 127
+     */
+    public static boolean variante(char[] codice, int inizio, int indice, char[] destinazione, int inizioDestinazione) {
+        
+        if(indice < 0 || indice > VARIANTI) {
+            throw new IllegalArgumentException("Indice della variante non valido.");
+        }
+        
+        int attuale = indice(codice, inizio);
+        if(attuale < 0) {
+            return false;
+        }
+        
+        System.arraycopy(codice, inizio, destinazione, inizioDestinazione, CodiceFiscale.LUNGHEZZA);
+        cambia(destinazione, inizioDestinazione, attuale, indice);
+        return true;
+    }
+    
+    /**
+     * Writes the base code of a code, with digits in all of the replaceable positions. The work is the same for every code: 7 characters and the control one
+     * (which is updated with the differences, so if it was wrong it stays wrong)
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @param destinazione array in which the base code is written (it can be the same array of the code)
+     * @param inizioDestinazione position of the first character of the base code in the array
+     * @return the index of the variant that the code was (0 if it was already the base code), -1 if a replaceable position has a character
+     *         that isn't a digit or an omocodia letter (in that case nothing is written)
+     */
+    public static int canonico(char[] codice, int inizio, char[] destinazione, int inizioDestinazione) {
+        
+        int indice = indice(codice, inizio);
+        if(indice < 0) {
+            return -1;
+        }
+        
+        System.arraycopy(codice, inizio, destinazione, inizioDestinazione, CodiceFiscale.LUNGHEZZA);
+        cambia(destinazione, inizioDestinazione, indice, 0);
+        return indice;
+    }
+    
+    /**
+     * Gives the base code of a fiscal code
+     * @param codice fiscal code, 16 characters
+     * @return the base code, uppercase if the omocodia letters were lowercase
+     * @throws IllegalArgumentException if the code isn't 16 characters long or a replaceable position has a character that isn't a digit or an omocodia letter
+     */
+    public static String canonico(CharSequence codice) {
+        
+        if(codice.length() != CodiceFiscale.LUNGHEZZA) {
+            throw new IllegalArgumentException("Il codice fiscale deve essere di 16 caratteri.");
+        }
+        
+        char[] caratteri = new char[CodiceFiscale.LUNGHEZZA];
+        for (int i=0; i<caratteri.length; i++) {
+            caratteri[i] = codice.charAt(i);
+        }
+        if(canonico(caratteri, 0, caratteri, 0) < 0) {
+            throw new IllegalArgumentException("Formato del codice fiscale non valido.");
+        }
+        
+        return new String(caratteri);
+    }
+    
+    /**
+     * Tells which variant a code is
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @return the index of the variant, 0 for the base code, -1 if a replaceable position has a character that isn't a digit or an omocodia letter
+     */
+    public static int indice(char[] codice, int inizio) {
+        
+        int indice = 0;
+        int validi = 0; //-1 if any of the characters isn't a digit or an omocodia letter, checked at the end to avoid a branch for every position
+        
+        for (int i=0; i<POSIZIONI.length; i++) {
+            char c = codice[inizio+POSIZIONI[i]];
+            validi |= CIFRE[c & 0x7F] | ((0x7F-c) >> 31); //characters out of ASCII are negative too
+            if(c > '9') {
+                indice |= 1 << i;
+            }
+        }
+        
+        return (validi < 0) ? -1 : indice;
+    }
+    
+    /**
+     * Writes all of the 127 variants of a code, in the order of their index, in the same buffer: between a variant and the next one
+     * only the characters that change are written (2 on average) and the control character is updated with their differences.
+     * The code can be the base one or any of its variants, its control character must be correct
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @param buffer array of at least 16 characters in which every variant is written, it's valid only during the call of the gestore
+     * @param gestore receives every variant
+     * @return false if the code can't have variants (a replaceable position has a character that isn't a digit or an omocodia letter)
+     */
+    public static boolean varianti(char[] codice, int inizio, char[] buffer, GestoreVarianti gestore) {
+        
+        int attuale = canonico(codice, inizio, buffer, 0);
+        if(attuale < 0) {
+            return false;
+        }
+        
+        for (int i=1; i<=VARIANTI; i++) {
+            cambia(buffer, 0, i-1, i);
+            gestore.variante(i, buffer, 0);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Receives the variants of a code, see {@link Omocodia#varianti(char[], int, char[], GestoreVarianti)}
+     */
+    public interface GestoreVarianti {
+        
+        /**
+         * Called for every variant
+         * @param indice index of the variant (1-127)
+         * @param codice array containing the variant, it's reused for the next one
+         * @param inizio position of the first character of the variant in the array
+         */
+        void variante(int indice, char[] codice, int inizio);
+    }
+    
+    /**
+     * Turns a variant into another one by writing only the characters of the bits that are different, and updates the control character
+     * @param codice array containing the code, it must be the variant "da"
+     * @param inizio position of the first character of the code in the array
+     * @param da index of the variant in the array
+     * @param a index of the variant to write
+     */
+    private static void cambia(char[] codice, int inizio, int da, int a) {
+        
+        int controllo = (codice[inizio+Segmenti.CONTROLLO] & ~0x20) - 'A'; //value of the control character, uppercase or lowercase
+        
+        for (int bit = da ^ a; bit != 0; bit &= bit-1) {
+            int b = Integer.numberOfTrailingZeros(bit);
+            int posizione = inizio+POSIZIONI[b];
+            int cifra = CIFRE[codice[posizione] & 0x7F];
+            if((a & (1 << b)) != 0) { //digit --> letter
+                codice[posizione] = Segmenti.OMOCODIA.charAt(cifra);
+                controllo += DIFFERENZE[b*10+cifra];
+            }
+            else { //letter --> digit
+                codice[posizione] = (char)('0'+cifra);
+                controllo -= DIFFERENZE[b*10+cifra];
+            }
+        }
+        
+        //the differences are between -25 and 25 and at most 7 change, so adding a multiple of 26 keeps the remainder positive
+        codice[inizio+Segmenti.CONTROLLO] = (char)((controllo + 26*7) % 26 + 'A');
+    }
+    
+    static {
+        Arrays.fill(CIFRE, -1);
+        for (int d=0; d<10; d++) {
+            char lettera = Segmenti.OMOCODIA.charAt(d);
+            CIFRE['0'+d] = CIFRE[lettera] = CIFRE[Character.toLowerCase(lettera)] = d;
+            for (int b=0; b<POSIZIONI.length; b++) {
+                DIFFERENZE[b*10+d] = Segmenti.valoreControllo(lettera, POSIZIONI[b]) - Segmenti.valoreControllo((char)('0'+d), POSIZIONI[b]);
+            }
+        }
+    }
+}
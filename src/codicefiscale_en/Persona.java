@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.time.Year;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable data of a person, from which the fiscal code is generated by {@link Codificatore}.
+ * All of the data is validated when the instance is constructed, and can't be changed after: the same instance can be freely shared between threads.
+ * The validation rules are the same used by the setters of {@link CodiceFiscale}.
+ * @author Pietro P.
+ */
+public final class Persona {
+    
+    /**
+     * Invalid surname (blank or without alphabet characters)
+     */
+    public static final int ERRORECOGNOME = 1;
+    /**
+     * Invalid name (blank or without alphabet characters)
+     */
+    public static final int ERRORENOME = 1 << 1;
+    /**
+     * Birth year before {@link CodiceFiscale#ANNOSOGLIA} or after the current year
+     */
+    public static final int ERROREANNO = 1 << 2;
+    /**
+     * Birth month that doesn't exist
+     */
+    public static final int ERROREMESE = 1 << 3;
+    /**
+     * Birth day that doesn't exist in any month
+     */
+    public static final int ERROREGIORNO = 1 << 4;
+    /**
+     * Sex that isn't m, M, f or F
+     */
+    public static final int ERRORESESSO = 1 << 5;
+    /**
+     * Invalid municipality (blank or without alphabet characters)
+     */
+    public static final int ERRORECOMUNE = 1 << 6;
+    /**
+     * Invalid province code (not formed by 2 characters, or without alphabet characters)
+     */
+    public static final int ERROREPROVINCIA = 1 << 7;
+    /**
+     * Birth day that doesn't exist in its month and year (like february 30th)
+     */
+    public static final int ERROREDATA = 1 << 8;
+    /**
+     * Municipality and province not found in the registry (checked only by {@link Codificatore#valida(String, String, int, int, int, char, String, String)})
+     */
+    public static final int ERRORECOMUNENONTROVATO = 1 << 9;
+    /**
+     * Municipality and province found in the registry, but the municipality didn't exist on the birth date (checked only by {@link Codificatore#valida(String, String, int, int, int, char, String, String)})
+     */
+    public static final int ERRORECOMUNENONESISTENTE = 1 << 10;
+    
+    //message of every error, in the same order as the bits of the constants
+    private static final String[] MESSAGGI = {
+        "Cognome non valido.",
+        "Nome non valido.",
+        "L'anno deve essere compreso tra 1848 e l'anno odierno.",
+        "Il mese inserito non esiste.",
+        "Il giorno inserito non esiste.",
+        "Sesso inserito non valido.",
+        "Comune non valido.",
+        "Provincia non valida.",
+        "Data inserita non esistente.",
+        "Comune/Provincia non trovati nell'elenco.",
+        "Comune non esistente alla data di nascita."
+    };
+    
+    private static volatile long fineAnnoCorrente; //instant (in milliseconds) in which the current year ends
+    private static volatile int ultimoAnno; //current year, valid until "fineAnnoCorrente"
+    
+    private final String cognome; //surname
+    private final String nome; //name
+    private final int anno; //birth year
+    private final int mese; //birth month
+    private final int giorno; //birth day
+    private final char sesso; //sex
+    private final String comune; //municipality
+    private final String provincia; //province
+    
+    /**
+     * Constructs a Persona with the data given in input
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune municipality
+     * @param provincia province code
+     * @throws Exception if one of the data is invalid, or if the date doesn't exist
+     */
+    public Persona(String cognome, String nome, int anno, int mese, int giorno, char sesso, String comune, String provincia) throws Exception {
+        
+        this.cognome = controllaCognome(cognome);
+        this.nome = controllaNome(nome);
+        this.anno = controllaAnno(anno);
+        this.mese = controllaMese(mese);
+        this.giorno = controllaGiorno(giorno);
+        this.sesso = controllaSesso(sesso);
+        this.comune = controllaComune(comune);
+        this.provincia = controllaProvincia(provincia);
+        
+        //checks if the inserted date is actually exists
+        if(!isGiornoEsistente(giorno, mese, anno)) {
+            throw new Exception(messaggio(ERROREDATA));
+        }
+    }
+    
+    /**
+     * Returns the person's surname
+     * @return surname
+     */
+    public String getCognome() {
+        return cognome;
+    }
+    
+    /**
+     * Returns the person's name
+     * @return name
+     */
+    public String getNome() {
+        return nome;
+    }
+    
+    /**
+     * Returns the person's birth year
+     * @return birth year
+     */
+    public int getAnno() {
+        return anno;
+    }
+    
+    /**
+     * Returns the person's birth month
+     * @return birth month
+     */
+    public int getMese() {
+        return mese;
+    }
+    
+    /**
+     * Returns the person's birth day
+     * @return birth day
+     */
+    public int getGiorno() {
+        return giorno;
+    }
+    
+    /**
+     * Returns the person's sex
+     * @return sex
+     */
+    public char getSesso() {
+        return sesso;
+    }
+    
+    /**
+     * Returns the person's municipality
+     * @return municipality
+     */
+    public String getComune() {
+        return comune;
+    }
+    
+    /**
+     * Returns the person's province code
+     * @return province code
+     */
+    public String getProvincia() {
+        return provincia;
+    }
+    
+    /**
+     * Checks all of the data of a person in a single pass, without throwing exceptions, and reports every invalid piece of data at once.
+     * It's meant for large amounts of data where invalid records are common: building an exception (with its stack trace) for each of them would be expensive
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @param comune municipality
+     * @param provincia province code
+     * @return 0 if all of the data is valid, otherwise the sum (bitwise or) of the ERRORE... constants of every error found
+     */
+    public static int valida(CharSequence cognome, CharSequence nome, int anno, int mese, int giorno, char sesso, CharSequence comune, CharSequence provincia) {
+        
+        int errori = validaAnagrafica(cognome, nome, anno, mese, giorno, sesso);
+        
+        if(!isTestoValido(comune)) {
+            errori |= ERRORECOMUNE;
+        }
+        if(!isProvinciaValida(provincia)) {
+            errori |= ERROREPROVINCIA;
+        }
+        
+        return errori;
+    }
+    
+    /**
+     * Checks all of the data of a person except municipality and province, in a single pass and without throwing exceptions
+     * @param cognome surname
+     * @param nome name
+     * @param anno birth year
+     * @param mese birth month
+     * @param giorno birth day
+     * @param sesso sex
+     * @return 0 if all of the data is valid, otherwise the sum (bitwise or) of the ERRORE... constants of every error found
+     */
+    static int validaAnagrafica(CharSequence cognome, CharSequence nome, int anno, int mese, int giorno, char sesso) {
+        
+        int errori = 0;
+        
+        if(!isTestoValido(cognome)) {
+            errori |= ERRORECOGNOME;
+        }
+        if(!isTestoValido(nome)) {
+            errori |= ERRORENOME;
+        }
+        if(anno < CodiceFiscale.ANNOSOGLIA || anno > annoCorrente()) {
+            errori |= ERROREANNO;
+        }
+        if(mese < 1 || mese > 12) {
+            errori |= ERROREMESE;
+        }
+        if(giorno < 1 || giorno > 31) {
+            errori |= ERROREGIORNO;
+        }
+        if(sesso != 'm' && sesso != 'f' && sesso != 'M' && sesso != 'F') {
+            errori |= ERRORESESSO;
+        }
+        if((errori & (ERROREANNO|ERROREMESE|ERROREGIORNO)) == 0 && !isGiornoEsistente(giorno, mese, anno)) { //the date can be checked only if its 3 parts are valid
+            errori |= ERROREDATA;
+        }
+        
+        return errori;
+    }
+    
+    /**
+     * Converts the errors found by {@link #valida(String, String, int, int, int, char, String, String)} into their messages (the same ones of the exceptions)
+     * @param errori sum of the ERRORE... constants
+     * @return the message of every error, in the same order as the constants
+     */
+    public static List<String> messaggi(int errori) {
+        
+        ArrayList<String> output = new ArrayList<>();
+        
+        for (int i=0; i<MESSAGGI.length; i++) {
+            if((errori & (1 << i)) != 0) {
+                output.add(MESSAGGI[i]);
+            }
+        }
+        
+        return output;
+    }
+    
+    /**
+     * Returns the message of a single error
+     * @param errore one of the ERRORE... constants
+     * @return the message of the error
+     */
+    static String messaggio(int errore) {
+        return MESSAGGI[Integer.numberOfTrailingZeros(errore)];
+    }
+    
+    /**
+     * Validates a name
+     * @param nome name
+     * @return the name without leading and trailing spaces
+     * @throws Exception if the name is blank or does not have alphabet characters
+     */
+    static String controllaNome(String nome) throws Exception {
+        
+        if(!isTestoValido(nome)) {
+            throw new Exception(messaggio(ERRORENOME));
+        }
+        return nome.trim();
+    }
+    
+    /**
+     * Validates a surname
+     * @param cognome surname
+     * @return the surname without leading and trailing spaces
+     * @throws Exception if the surname is blank or does not have alphabet characters
+     */
+    static String controllaCognome(String cognome) throws Exception {
+        
+        if(!isTestoValido(cognome)) {
+            throw new Exception(messaggio(ERRORECOGNOME));
+        }
+        return cognome.trim();
+    }
+    
+    /**
+     * Validates a birth year
+     * @param anno birth year
+     * @return the same year
+     * @throws Exception if the year comes before 1848 or after the current year
+     */
+    static int controllaAnno(int anno) throws Exception {
+        
+        if(anno < CodiceFiscale.ANNOSOGLIA || anno > annoCorrente()) {
+            throw new Exception(messaggio(ERROREANNO));
+        }
+        return anno;
+    }
+    
+    /**
+     * Validates a birth month
+     * @param mese birth month
+     * @return the same month
+     * @throws Exception if the month does not exist
+     */
+    static int controllaMese(int mese) throws Exception {
+        
+        if(mese < 1 || mese > 12) {
+            throw new Exception(messaggio(ERROREMESE));
+        }
+        return mese;
+    }
+    
+    /**
+     * Validates a birth day, without checking the month (see {@link #isGiornoEsistente(int, int, int)})
+     * @param giorno birth day
+     * @return the same day
+     * @throws Exception if the day does not exist in any month
+     */
+    static int controllaGiorno(int giorno) throws Exception {
+        
+        if(giorno < 1 || giorno > 31) {
+            throw new Exception(messaggio(ERROREGIORNO));
+        }
+        return giorno;
+    }
+    
+    /**
+     * Validates a sex
+     * @param sesso sex
+     * @return the same sex
+     * @throws Exception if the sex char does not correspond to the usual 4 characters used to identify sex (m, M, f , F)
+     */
+    static char controllaSesso(char sesso) throws Exception {
+        
+        if(sesso != 'm' && sesso != 'f' && sesso != 'M' && sesso != 'F') {
+            throw new Exception(messaggio(ERRORESESSO));
+        }
+        return sesso;
+    }
+    
+    /**
+     * Validates a municipality
+     * @param comune municipality
+     * @return the municipality without leading and trailing spaces
+     * @throws Exception if the municipality is blank or does not have alphabet characters
+     */
+    static String controllaComune(String comune) throws Exception {
+        
+        if(!isTestoValido(comune)) {
+            throw new Exception(messaggio(ERRORECOMUNE));
+        }
+        return comune.trim();
+    }
+    
+    /**
+     * Validates a province code
+     * @param provincia priovince code, must be formed of only 2 characters
+     * @return the province code, uppercase
+     * @throws Exception if the province code is blank, is not formed by 2 characters or does not have alphabet characters
+     */
+    static String controllaProvincia(String provincia) throws Exception {
+        
+        if(!isProvinciaValida(provincia)) {
+            throw new Exception(messaggio(ERROREPROVINCIA));
+        }
+        return provincia.trim().toUpperCase(); //all of the province 2 character codes are written all uppercase
+    }
+    
+    /**
+     * Checks a name, surname or municipality: it must have at least one alphabet character (which also means that it isn't blank)
+     * @param testo the text to check
+     * @return true if the text is valid
+     */
+    private static boolean isTestoValido(CharSequence testo) {
+        return testo != null && Segmenti.hasCharsAlfabeto(testo);
+    }
+    
+    /**
+     * Checks a province code: it must be formed by 2 characters (ignoring leading and trailing spaces) and have at least one alphabet character
+     * @param provincia province code
+     * @return true if the province code is valid
+     */
+    private static boolean isProvinciaValida(CharSequence provincia) {
+        
+        if(provincia == null) {
+            return false;
+        }
+        
+        //the same as trim(), but without creating a new string (and working on any text)
+        int inizio = 0;
+        int fine = provincia.length();
+        while(inizio < fine && provincia.charAt(inizio) <= ' ') {
+            inizio++;
+        }
+        while(fine > inizio && provincia.charAt(fine-1) <= ' ') {
+            fine--;
+        }
+        
+        return fine-inizio == 2 && Segmenti.hasCharsAlfabeto(provincia);
+    }
+    
+    /**
+     * Returns the current year. It's computed again only when the year changes, since {@link Year#now()} creates new objects every time
+     * @return the current year
+     */
+    static int annoCorrente() {
+        
+        if(System.currentTimeMillis() >= fineAnnoCorrente) {
+            
+            ZonedDateTime adesso = ZonedDateTime.now();
+            int anno = adesso.getYear();
+            
+            ultimoAnno = anno; //written before the end of the year, so whoever sees the new end also sees the new year
+            fineAnnoCorrente = Year.of(anno+1).atDay(1).atStartOfDay(adesso.getZone()).toInstant().toEpochMilli();
+        }
+        
+        return ultimoAnno;
+    }
+    
+    /**
+     * Using month and year as reference, checks if the day given in input exisits
+     * @param giorno the day to check
+     * @param mese month for reference
+     * @param anno year for reference
+     * @return true if the day exists, otherwise false
+     */
+    static boolean isGiornoEsistente(int giorno, int mese, int anno) {
+        
+        boolean output=true;
+        boolean isBisestile = Year.isLeap(anno); //checks if the year is a leap year
+        
+        switch(mese) {
+            //checks that for 30-day months the day is smaller (or equal, of course) than 30
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                if(giorno > 30) {
+                    output=false;
+                }
+                break;
+            //for february, first checks if it's a leap year or not: if it's a leap year, the day must be smaller than 29, if it's not the day must be smaller than 28
+            case 2:
+                if(isBisestile) {
+                    if(giorno > 29) {
+                        output=false;
+                    }
+                }
+                else {
+                    if(giorno > 28) {
+                        output=false;
+                    }
+                }
+                break;
+        }
+        
+        return output;
+    }
+}
@@ -0,0 +1,994 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * Immutable registry of all the italian municipalities, with their province and municipality (Belfiore) code.
+ * The registry is loaded only once per process, then every lookup is done in memory in O(1), without touching the file again.
+ * It's normally loaded from a compact binary snapshot ({@link #RISORSABINARIA}) generated from the .csv file at build time and shipped in the jar,
+ * the .csv file ({@link CodiceFiscale#ELENCOCOMUNI}) is still the source of truth and is read only if the snapshot is missing.
+ * Municipalities can also be found by their alternative names, with the same O(1) lookup: both halves of the bilingual names (like "BOLZANO/BOZEN"),
+ * and the names of the companion file {@link CodiceFiscale#ELENCOALIAS} (like "AOSTE" or "REGGIO EMILIA").
+ * Every municipality can have a validity interval, from the companion file {@link CodiceFiscale#ELENCOSTORICO}, so that the suppressed or merged municipalities
+ * are still found for the people born there before they were suppressed: more municipalities can share the same name and province, and the one valid
+ * at the birth date is found with a binary search among them (O(log k), where k is the number of municipalities with that name, almost always 1).
+ * Since nothing can be changed after loading, the same instance can be read by any number of threads at the same time.
+ * @author Pietro P.
+ */
+public final class RegistroComuni {
+
+    /**
+     * Name of the classpath resource (next to this class) that contains the binary snapshot of the registry
+     */
+    public static final String RISORSABINARIA = "comuni.bin";
+    
+    /**
+     * Number of different municipality codes that can exist: one letter (26) followed by 3 digits (1000)
+     */
+    public static final int NUMEROCODICI = 26000;
+    
+    private static final int FIRMA = 0x43465243; //"CFRC", first 4 bytes of every snapshot
+    private static final int VERSIONE = 3; //version of the snapshot format, changes whenever the layout changes
+    
+    /**
+     * Start of the validity of the municipalities that have always existed, as a date written as yyyymmdd
+     */
+    public static final int DALSEMPRE = 0;
+    
+    /**
+     * End of the validity of the municipalities that still exist, as a date written as yyyymmdd
+     */
+    public static final int PERSEMPRE = 99991231;
+
+    private static volatile RegistroComuni istanza; //shared instance, loaded the first time it's requested
+    private static volatile long fineGiorno; //instant (in milliseconds) in which the current day ends
+    private static volatile int ultimoGiorno; //current day as yyyymmdd, valid until "fineGiorno"
+
+    private final String[] comuni; //municipality names, as written in the file
+    private final String[] province; //province codes
+    private final String[] codici; //municipality codes
+    private final String[] alias; //alternative names, from the alias file
+    private final String[] provinceAlias; //province codes of the alternative names
+    private final int[] comuniAlias; //position in the arrays of the municipality of every alternative name
+    private final int[] inizioValidita; //first day in which every municipality exists, as yyyymmdd
+    private final int[] fineValidita; //last day in which every municipality exists, as yyyymmdd
+    private final Strategia strategia; //how the index is built
+    private final IndiceComuni indice; //normalized municipality (or alternative name) and province --> key of the index
+    private final int[] inizioGruppi; //key of the index --> start in "gruppi" of the municipalities with that name (the group ends where the next one starts)
+    private final int[] gruppi; //positions in the arrays of the municipalities of every key, sorted by start of validity
+    private final int[] perCodice; //municipality code, converted with numeroCodice() --> position in the arrays, or -1 if there's no municipality with that code
+    private volatile IndicePrefissi prefissi; //municipalities sorted by name, built the first time suggestions are requested
+
+    /**
+     * Strategies that can be used to find a municipality from its name and province
+     */
+    public enum Strategia {
+        /**
+         * Plain HashMap from the "MUNICIPALITY,PROVINCE" key to the position in the registry
+         */
+        HASHMAP,
+        /**
+         * Minimal perfect hash function built when the registry is loaded: a single probe in flat arrays, without entry objects or boxing (default)
+         */
+        HASHPERFETTO
+    }
+
+    /**
+     * Constructs the registry from the already parsed columns of the municipality file
+     * @param comuni municipality names
+     * @param province province codes
+     * @param codici municipality codes
+     * @param alias alternative names
+     * @param provinceAlias province codes of the alternative names
+     * @param comuniAlias position of the municipality of every alternative name
+     * @param inizioValidita first day of validity of every municipality, as yyyymmdd
+     * @param fineValidita last day of validity of every municipality, as yyyymmdd
+     * @param strategia strategy used to index the municipalities
+     */
+    private RegistroComuni(String[] comuni, String[] province, String[] codici, String[] alias, String[] provinceAlias, int[] comuniAlias,
+            int[] inizioValidita, int[] fineValidita, Strategia strategia) {
+
+        this.comuni = comuni;
+        this.province = province;
+        this.codici = codici;
+        this.alias = alias;
+        this.provinceAlias = provinceAlias;
+        this.comuniAlias = comuniAlias;
+        this.inizioValidita = inizioValidita;
+        this.fineValidita = fineValidita;
+        this.strategia = strategia;
+
+        this.perCodice = new int[NUMEROCODICI]; //direct addressing: every possible code has its own element, so no hashing is needed
+        Arrays.fill(perCodice, -1);
+        for (int i=codici.length-1; i>=0; i--) { //backwards, so that if a code appears more than once the first municipality is kept
+            perCodice[numeroCodice(codici[i], 0)] = i;
+        }
+
+        //the index works on uppercase names without accents: first the names of the registry (municipalities with the same name share the key),
+        //then the halves of the bilingual names and the alternative names
+        Chiavi chiavi = new Chiavi(comuni.length);
+        for (int i=0; i<comuni.length; i++) {
+            chiavi.aggiungi(comuni[i], province[i], i, true);
+        }
+        for (int i=0; i<comuni.length; i++) {
+            if(comuni[i].indexOf('/') >= 0) {
+                for (String nome : comuni[i].split("/")) {
+                    chiavi.aggiungi(nome, province[i], i, false);
+                }
+            }
+        }
+        for (int i=0; i<alias.length; i++) {
+            chiavi.aggiungi(alias[i], provinceAlias[i], comuniAlias[i], false);
+        }
+
+        //the groups are laid out one after the other, each one sorted by start of validity for the binary search
+        int numeroChiavi = chiavi.nomi.size();
+        this.inizioGruppi = new int[numeroChiavi+1];
+        this.gruppi = new int[numeroChiavi + chiavi.aggiunti];
+        int fine = 0;
+        for (int k=0; k<numeroChiavi; k++) {
+            inizioGruppi[k] = fine;
+            for (int i=chiavi.posizioni[k]; i>=0; i=chiavi.successivi[i]) {
+                int j = fine++;
+                while(j > inizioGruppi[k] && inizioValidita[gruppi[j-1]] > inizioValidita[i]) { //insertion sort, the groups have almost always a single municipality
+                    gruppi[j] = gruppi[j-1];
+                    j--;
+                }
+                gruppi[j] = i;
+            }
+        }
+        inizioGruppi[numeroChiavi] = fine;
+
+        if(strategia == Strategia.HASHMAP) {
+            this.indice = new IndiceHashMap(chiavi.nomi.toArray(new String[0]), chiavi.province.toArray(new String[0]));
+        }
+        else {
+            this.indice = new HashPerfetto(chiavi.nomi.toArray(new String[0]), chiavi.province.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Keys of the index, built with the registry: every normalized name and province with the positions of its municipalities
+     */
+    private static final class Chiavi {
+
+        private final ArrayList<String> nomi; //uppercase names without accents
+        private final ArrayList<String> province; //uppercase province codes
+        private final HashMap<String, Integer> presenti = new HashMap<>(); //"NAME,PROVINCE" of the keys already added --> key
+        private final int[] successivi; //position in the registry --> next municipality with the same key, or -1
+        private int[] posizioni; //position in the registry of the first municipality of every key
+        private int aggiunti; //municipalities added to a key that already existed
+
+        private Chiavi(int numero) {
+
+            nomi = new ArrayList<>(numero);
+            province = new ArrayList<>(numero);
+            posizioni = new int[Math.max(numero, 16)];
+            successivi = new int[numero];
+            Arrays.fill(successivi, -1);
+        }
+
+        /**
+         * Adds a key. If the same name with the same province was already added, the municipality joins it only if both are names of the registry
+         * (a municipality that was suppressed and one that exists now, for example), otherwise the first one wins
+         * @param nome name, as written in the files
+         * @param provincia province code
+         * @param posizione position of the municipality in the registry
+         * @param condivisa true if it's the name of the municipality in the registry, false if it's an alternative name
+         */
+        private void aggiungi(String nome, String provincia, int posizione, boolean condivisa) {
+
+            String normalizzato = Traslitterazione.piega(nome.strip()).toUpperCase();
+            String provinciaNormalizzata = provincia.toUpperCase();
+            Integer chiave = presenti.putIfAbsent(normalizzato + "," + provinciaNormalizzata, nomi.size());
+
+            if(chiave == null) {
+                if(nomi.size() == posizioni.length) {
+                    posizioni = Arrays.copyOf(posizioni, posizioni.length*2);
+                }
+                posizioni[nomi.size()] = posizione;
+                nomi.add(normalizzato);
+                province.add(provinciaNormalizzata);
+            }
+            else if(condivisa) { //the names of the registry are added first, so the key is shared only by names of the registry
+                successivi[posizione] = posizioni[chiave]; //added at the head of the group, it's sorted when the groups are laid out
+                posizioni[chiave] = posizione;
+                aggiunti++;
+            }
+        }
+    }
+
+    /**
+     * Returns the registry shared by the whole process, loading it the first time from the binary snapshot,
+     * or from {@link CodiceFiscale#ELENCOCOMUNI} (and {@link CodiceFiscale#ELENCOALIAS} and {@link CodiceFiscale#ELENCOSTORICO}, if they exist) if the snapshot is missing
+     * @return the shared municipality registry
+     * @throws Exception if neither the snapshot nor the municipality file were found, or if they are malformed
+     */
+    public static RegistroComuni getIstanza() throws Exception {
+
+        RegistroComuni registro = istanza;
+
+        if(registro == null) { //only the first caller loads the file, the others wait and then reuse the same instance
+            synchronized(RegistroComuni.class) {
+                registro = istanza;
+                if(registro == null) {
+                    registro = caricaBinario();
+                    if(registro == null) { //no snapshot in the classpath (for example when running from the sources), falls back to the .csv file
+                        registro = carica(CodiceFiscale.ELENCOCOMUNI, CodiceFiscale.ELENCOALIAS.exists() ? CodiceFiscale.ELENCOALIAS : null,
+                                CodiceFiscale.ELENCOSTORICO.exists() ? CodiceFiscale.ELENCOSTORICO : null);
+                    }
+                    istanza = registro;
+                }
+            }
+        }
+
+        return registro;
+    }
+
+    /**
+     * Reads a .csv file formatted like {@link CodiceFiscale#ELENCOCOMUNI} (Municipality,Province,Municipality code) and builds a new registry from it
+     * @param file file with all of the italian municipalities
+     * @return the registry containing every line of the file
+     * @throws Exception if the file wasn't found or if one of its lines doesn't have 3 values
+     */
+    public static RegistroComuni carica(File file) throws Exception {
+        return carica(file, null);
+    }
+
+    /**
+     * Reads a .csv file formatted like {@link CodiceFiscale#ELENCOCOMUNI} (Municipality,Province,Municipality code) and builds a new registry from it,
+     * adding the alternative names of a file formatted like {@link CodiceFiscale#ELENCOALIAS} (Alternative name,Province,Municipality code)
+     * @param file file with all of the italian municipalities
+     * @param fileAlias file with the alternative names, null if there are none
+     * @return the registry containing every line of the files
+     * @throws Exception if a file wasn't found, if one of its lines doesn't have 3 values or if an alternative name has the code of a municipality that isn't in the registry
+     */
+    public static RegistroComuni carica(File file, File fileAlias) throws Exception {
+        return carica(file, fileAlias, null);
+    }
+
+    /**
+     * Reads a .csv file formatted like {@link CodiceFiscale#ELENCOCOMUNI} (Municipality,Province,Municipality code) and builds a new registry from it,
+     * adding the alternative names of a file formatted like {@link CodiceFiscale#ELENCOALIAS} (Alternative name,Province,Municipality code)
+     * and the validity intervals of a file formatted like {@link CodiceFiscale#ELENCOSTORICO} (Municipality,Province,Municipality code,Valid from,Valid to).
+     * A line of the validity file with the same name, province and code of a municipality of the first file sets the validity of that municipality,
+     * every other line adds a municipality that doesn't exist anymore. The dates are written as yyyy-mm-dd, an empty date means that there's no limit
+     * @param file file with all of the italian municipalities
+     * @param fileAlias file with the alternative names, null if there are none
+     * @param fileStorico file with the validity intervals, null if every municipality is always valid
+     * @return the registry containing every line of the files
+     * @throws Exception if a file wasn't found, if one of its lines doesn't have the right number of values, if a date isn't valid
+     * or if an alternative name has the code of a municipality that isn't in the registry
+     */
+    public static RegistroComuni carica(File file, File fileAlias, File fileStorico) throws Exception {
+
+        ArrayList<String> comuni = new ArrayList<>();
+        ArrayList<String> province = new ArrayList<>();
+        ArrayList<String> codici = new ArrayList<>();
+        leggiElenco(file, comuni, province, codici, null, null);
+
+        int[] inizioValidita = new int[comuni.size()];
+        int[] fineValidita = new int[comuni.size()];
+        Arrays.fill(inizioValidita, DALSEMPRE);
+        Arrays.fill(fineValidita, PERSEMPRE);
+
+        if(fileStorico != null) {
+            ArrayList<String> comuniStorici = new ArrayList<>();
+            ArrayList<String> provinceStoriche = new ArrayList<>();
+            ArrayList<String> codiciStorici = new ArrayList<>();
+            ArrayList<Integer> inizi = new ArrayList<>();
+            ArrayList<Integer> fini = new ArrayList<>();
+            leggiElenco(fileStorico, comuniStorici, provinceStoriche, codiciStorici, inizi, fini);
+
+            inizioValidita = Arrays.copyOf(inizioValidita, comuni.size()+comuniStorici.size());
+            fineValidita = Arrays.copyOf(fineValidita, comuni.size()+comuniStorici.size());
+            int n = comuni.size();
+            for (int i=0; i<comuniStorici.size(); i++) {
+                int posizione = codici.indexOf(codiciStorici.get(i)); //the validity file is short, so a linear search for every line is enough
+                if(posizione < 0 || posizione >= n || !comuni.get(posizione).equals(comuniStorici.get(i)) || !province.get(posizione).equals(provinceStoriche.get(i))) {
+                    posizione = comuni.size(); //not in the list of the current municipalities, it's added after all of them
+                    comuni.add(comuniStorici.get(i));
+                    province.add(provinceStoriche.get(i));
+                    codici.add(codiciStorici.get(i));
+                }
+                inizioValidita[posizione] = inizi.get(i);
+                fineValidita[posizione] = fini.get(i);
+            }
+            inizioValidita = Arrays.copyOf(inizioValidita, comuni.size());
+            fineValidita = Arrays.copyOf(fineValidita, comuni.size());
+        }
+
+        ArrayList<String> alias = new ArrayList<>();
+        ArrayList<String> provinceAlias = new ArrayList<>();
+        ArrayList<String> codiciAlias = new ArrayList<>();
+        if(fileAlias != null) {
+            leggiElenco(fileAlias, alias, provinceAlias, codiciAlias, null, null);
+        }
+
+        int[] comuniAlias = new int[alias.size()];
+        for (int i=0; i<comuniAlias.length; i++) {
+            comuniAlias[i] = codici.indexOf(codiciAlias.get(i)); //the alias file is short, so a linear search for every line is enough
+            if(comuniAlias[i] < 0) {
+                throw new Exception("Comune dell'alias non trovato: " + alias.get(i) + "," + provinceAlias.get(i) + "," + codiciAlias.get(i));
+            }
+        }
+
+        return new RegistroComuni(comuni.toArray(new String[0]), province.toArray(new String[0]), codici.toArray(new String[0]),
+                alias.toArray(new String[0]), provinceAlias.toArray(new String[0]), comuniAlias, inizioValidita, fineValidita, Strategia.HASHPERFETTO);
+    }
+
+    /**
+     * Reads a .csv file with 3 values in every line: name, province and municipality code, or 5 values if the validity dates are read too
+     * @param file file to read
+     * @param nomi list in which the names are added
+     * @param province list in which the provinces are added
+     * @param codici list in which the municipality codes are added
+     * @param inizi list in which the starts of validity are added as yyyymmdd, null if the file has only 3 values in every line
+     * @param fini list in which the ends of validity are added as yyyymmdd, null if the file has only 3 values in every line
+     * @throws Exception if the file wasn't found, if one of its lines doesn't have the right number of values, if a municipality code or a date isn't valid
+     */
+    private static void leggiElenco(File file, ArrayList<String> nomi, ArrayList<String> province, ArrayList<String> codici, ArrayList<Integer> inizi, ArrayList<Integer> fini) throws Exception {
+
+        final String DELIMITATORE = ","; //value delimitator in .csv files
+
+        try(Scanner input = new Scanner(file)) {
+            while(input.hasNextLine()) { //reads all of the lines of the file
+
+                String riga = input.nextLine();
+                if(riga.isBlank()) {
+                    continue;
+                }
+
+                String[] linea = riga.split(DELIMITATORE, -1); //splits the line in Municipality, Province and Municipality code (and the dates, that can be empty)
+                if(linea.length != (inizi == null ? 3 : 5)) {
+                    throw new Exception("Elenco dei comuni non valido: " + riga);
+                }
+
+                if(linea[2].length() != 4 || numeroCodice(linea[2], 0) < 0) {
+                    throw new Exception("Codice comune non valido: " + riga);
+                }
+
+                nomi.add(linea[0]);
+                province.add(linea[1]);
+                codici.add(linea[2]);
+
+                if(inizi != null) {
+                    int inizio = linea[3].isBlank() ? DALSEMPRE : data(linea[3].strip(), riga);
+                    int fine = linea[4].isBlank() ? PERSEMPRE : data(linea[4].strip(), riga);
+                    if(inizio > fine) {
+                        throw new Exception("Intervallo di validità non valido: " + riga);
+                    }
+                    inizi.add(inizio);
+                    fini.add(fine);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a date written as yyyy-mm-dd into a number written as yyyymmdd, that can be compared directly with the other dates
+     * @param testo date to convert
+     * @param riga line of the file that contains the date, for the error message
+     * @return the date as yyyymmdd
+     * @throws Exception if the date isn't valid
+     */
+    private static int data(String testo, String riga) throws Exception {
+
+        try {
+            LocalDate data = LocalDate.parse(testo);
+            return data(data.getYear(), data.getMonthValue(), data.getDayOfMonth());
+        } catch(DateTimeParseException ecc) {
+            throw new Exception("Data di validità non valida: " + riga, ecc);
+        }
+    }
+
+    /**
+     * Loads the registry from the binary snapshot {@link #RISORSABINARIA} in the classpath, with a single bulk read
+     * @return the registry contained in the snapshot, or null if there's no snapshot in the classpath
+     * @throws Exception if the snapshot can't be read or is malformed
+     */
+    public static RegistroComuni caricaBinario() throws Exception {
+
+        try(InputStream input = RegistroComuni.class.getResourceAsStream(RISORSABINARIA)) {
+            if(input == null) {
+                return null;
+            }
+            return leggiBinario(input.readAllBytes());
+        }
+    }
+
+    /**
+     * Decodes a binary snapshot generated by {@link #salvaBinario(OutputStream)}.
+     * Layout: signature, version, number of municipalities, province table (2 bytes per province),
+     * then for each municipality the index of its province (1 byte), its packed code (2 bytes) and the length of its name (1 byte),
+     * then all of the names, one after the other, in UTF-8; at last the number of alternative names,
+     * for each of them the index of its province (1 byte), the position of its municipality (2 bytes) and the length of the name (1 byte), and all of their names;
+     * at last the number of municipalities that aren't always valid, and for each of them its position (2 bytes), start and end of validity (4 bytes each, as yyyymmdd)
+     * @param dati the whole content of the snapshot
+     * @return the registry contained in the snapshot
+     * @throws Exception if the snapshot is malformed
+     */
+    private static RegistroComuni leggiBinario(byte[] dati) throws Exception {
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(dati);
+
+            if(buffer.getInt() != FIRMA || buffer.getInt() != VERSIONE) {
+                throw new Exception("Formato dell'elenco binario dei comuni non valido.");
+            }
+
+            int n = buffer.getInt(); //number of municipalities
+            String[] tabellaProvince = new String[buffer.getShort()];
+            for (int i=0; i<tabellaProvince.length; i++) {
+                tabellaProvince[i] = new String(dati, buffer.position(), 2, StandardCharsets.US_ASCII).intern(); //every municipality of the same province shares the same String
+                buffer.position(buffer.position()+2);
+            }
+
+            String[] comuni = new String[n];
+            String[] province = new String[n];
+            String[] codici = new String[n];
+            int[] lunghezze = new int[n];
+
+            for (int i=0; i<n; i++) {
+                province[i] = tabellaProvince[buffer.get() & 0xFF];
+                codici[i] = codiceDaNumero(buffer.getShort());
+                lunghezze[i] = buffer.get() & 0xFF;
+            }
+
+            int posizione = buffer.position(); //the names start right after the fixed size part
+            for (int i=0; i<n; i++) {
+                comuni[i] = new String(dati, posizione, lunghezze[i], StandardCharsets.UTF_8);
+                posizione += lunghezze[i];
+            }
+            buffer.position(posizione);
+
+            int numeroAlias = buffer.getInt();
+            String[] alias = new String[numeroAlias];
+            String[] provinceAlias = new String[numeroAlias];
+            int[] comuniAlias = new int[numeroAlias];
+            int[] lunghezzeAlias = new int[numeroAlias];
+
+            for (int i=0; i<numeroAlias; i++) {
+                provinceAlias[i] = tabellaProvince[buffer.get() & 0xFF];
+                comuniAlias[i] = buffer.getShort() & 0xFFFF;
+                lunghezzeAlias[i] = buffer.get() & 0xFF;
+                if(comuniAlias[i] >= n) {
+                    throw new Exception("Elenco binario dei comuni non valido.");
+                }
+            }
+
+            posizione = buffer.position();
+            for (int i=0; i<numeroAlias; i++) {
+                alias[i] = new String(dati, posizione, lunghezzeAlias[i], StandardCharsets.UTF_8);
+                posizione += lunghezzeAlias[i];
+            }
+            buffer.position(posizione);
+
+            int[] inizioValidita = new int[n];
+            int[] fineValidita = new int[n];
+            Arrays.fill(inizioValidita, DALSEMPRE);
+            Arrays.fill(fineValidita, PERSEMPRE);
+            int numeroLimitati = buffer.getInt(); //only the municipalities that aren't always valid are written
+            for (int i=0; i<numeroLimitati; i++) {
+                int comune = buffer.getShort() & 0xFFFF;
+                if(comune >= n) {
+                    throw new Exception("Elenco binario dei comuni non valido.");
+                }
+                inizioValidita[comune] = buffer.getInt();
+                fineValidita[comune] = buffer.getInt();
+            }
+
+            return new RegistroComuni(comuni, province, codici, alias, provinceAlias, comuniAlias, inizioValidita, fineValidita, Strategia.HASHPERFETTO);
+        } catch(RuntimeException ecc) { //a truncated snapshot makes the buffer go out of bounds
+            throw new Exception("Elenco binario dei comuni non valido.", ecc);
+        }
+    }
+
+    /**
+     * Writes the binary snapshot of this registry, that can then be read by {@link #caricaBinario()}
+     * @param output stream in which the snapshot is written, it's not closed by this method
+     * @throws Exception if the registry can't be represented in the snapshot (too many provinces or names too long)
+     * @throws IOException if the stream can't be written
+     */
+    public void salvaBinario(OutputStream output) throws Exception {
+
+        ArrayList<String> tabellaProvince = new ArrayList<>();
+        HashMap<String, Integer> indiciProvince = new HashMap<>();
+        byte[][] nomi = new byte[comuni.length][];
+        byte[][] nomiAlias = new byte[alias.length][];
+
+        for (int i=0; i<comuni.length+alias.length; i++) {
+            boolean isAlias = i >= comuni.length;
+            String provincia = isAlias ? provinceAlias[i-comuni.length] : province[i];
+            if(!indiciProvince.containsKey(provincia)) {
+                indiciProvince.put(provincia, tabellaProvince.size());
+                tabellaProvince.add(provincia);
+            }
+            byte[] nome = (isAlias ? alias[i-comuni.length] : comuni[i]).getBytes(StandardCharsets.UTF_8);
+            if(nome.length > 0xFF || provincia.length() != 2) {
+                throw new Exception("Comune non rappresentabile nell'elenco binario: " + new String(nome, StandardCharsets.UTF_8));
+            }
+            if(isAlias) {
+                nomiAlias[i-comuni.length] = nome;
+            }
+            else {
+                nomi[i] = nome;
+            }
+        }
+        if(tabellaProvince.size() > 0xFF || comuni.length > 0xFFFF) {
+            throw new Exception("Troppe province o comuni per l'elenco binario.");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(); //the snapshot is built in memory, so that it's written on the stream all at once
+        DataOutputStream dati = new DataOutputStream(bytes);
+
+        dati.writeInt(FIRMA);
+        dati.writeInt(VERSIONE);
+        dati.writeInt(comuni.length);
+        dati.writeShort(tabellaProvince.size());
+        for (String provincia : tabellaProvince) {
+            dati.write(provincia.getBytes(StandardCharsets.US_ASCII));
+        }
+        for (int i=0; i<comuni.length; i++) {
+            dati.writeByte(indiciProvince.get(province[i]));
+            dati.writeShort(numeroCodice(codici[i], 0));
+            dati.writeByte(nomi[i].length);
+        }
+        for (byte[] nome : nomi) {
+            dati.write(nome);
+        }
+        dati.writeInt(alias.length);
+        for (int i=0; i<alias.length; i++) {
+            dati.writeByte(indiciProvince.get(provinceAlias[i]));
+            dati.writeShort(comuniAlias[i]);
+            dati.writeByte(nomiAlias[i].length);
+        }
+        for (byte[] nome : nomiAlias) {
+            dati.write(nome);
+        }
+        int numeroLimitati = 0;
+        for (int i=0; i<comuni.length; i++) {
+            if(inizioValidita[i] != DALSEMPRE || fineValidita[i] != PERSEMPRE) {
+                numeroLimitati++;
+            }
+        }
+        dati.writeInt(numeroLimitati);
+        for (int i=0; i<comuni.length; i++) {
+            if(inizioValidita[i] != DALSEMPRE || fineValidita[i] != PERSEMPRE) {
+                dati.writeShort(i);
+                dati.writeInt(inizioValidita[i]);
+                dati.writeInt(fineValidita[i]);
+            }
+        }
+
+        dati.flush();
+        bytes.writeTo(output);
+    }
+
+    /**
+     * Generates the binary snapshot of the registry from the .csv file, it's run by the build after compiling
+     * @param args path of the .csv file, path of the snapshot to write and optionally paths of the .csv files with the alternative names and with the validity intervals
+     * @throws Exception if the .csv file can't be read or the snapshot can't be written
+     */
+    public static void main(String[] args) throws Exception {
+
+        if(args.length < 2 || args.length > 4) {
+            throw new Exception("Uso: RegistroComuni <elenco .csv> <elenco binario> [alias .csv] [validità .csv]");
+        }
+
+        RegistroComuni registro = carica(new File(args[0]), args.length > 2 ? new File(args[2]) : null, args.length > 3 ? new File(args[3]) : null);
+        File destinazione = new File(args[1]);
+        if(destinazione.getParentFile() != null) {
+            destinazione.getParentFile().mkdirs();
+        }
+
+        try(FileOutputStream output = new FileOutputStream(destinazione)) {
+            registro.salvaBinario(output);
+        }
+    }
+
+    /**
+     * Searches the municipality with the given name (or one of its alternative names) and province.
+     * If more municipalities had that name at different times, the one that exists today is returned;
+     * if none of them exists today, the last one that existed is returned
+     * @param comune municipality, case and accents are ignored
+     * @param provincia province code, case is ignored
+     * @return the position of the municipality in the registry, or -1 if no municipality ever had that name
+     */
+    public int cerca(CharSequence comune, CharSequence provincia) {
+
+        int chiave = indice.cerca(Traslitterazione.piega(comune), provincia);
+        if(chiave < 0) {
+            return -1;
+        }
+
+        int posizione = cercaNelGruppo(chiave, oggi());
+
+        return posizione < 0 ? gruppi[inizioGruppi[chiave+1]-1] : posizione; //the municipalities of a group don't overlap, so the last one to start is also the last one to end
+    }
+
+    /**
+     * Searches the municipality with the given name (or one of its alternative names) and province that existed on the given date, like the birth date of a person.
+     * Among the municipalities with that name, the one valid on that date is found with a binary search on the start of their validity
+     * @param comune municipality, case and accents are ignored
+     * @param provincia province code, case is ignored
+     * @param anno year
+     * @param mese month
+     * @param giorno day
+     * @return the position of the municipality in the registry, or -1 if there was no municipality with that name on that date
+     */
+    public int cerca(CharSequence comune, CharSequence provincia, int anno, int mese, int giorno) {
+        return cerca(comune, provincia, data(anno, mese, giorno));
+    }
+
+    /**
+     * Searches the municipality with the given name and province that existed on the given date, see {@link #cerca(CharSequence, CharSequence, int, int, int)}
+     * @param comune municipality, case and accents are ignored
+     * @param provincia province code, case is ignored
+     * @param data date, as yyyymmdd (see {@link #data(int, int, int)})
+     * @return the position of the municipality in the registry, or -1 if there was no municipality with that name on that date
+     */
+    int cerca(CharSequence comune, CharSequence provincia, int data) {
+
+        int chiave = indice.cerca(Traslitterazione.piega(comune), provincia);
+
+        return chiave < 0 ? -1 : cercaNelGruppo(chiave, data);
+    }
+
+    /**
+     * Searches, among the municipalities that share a key of the index, the one that existed on the given date
+     * @param chiave key of the index
+     * @param data date, as yyyymmdd (see {@link #data(int, int, int)})
+     * @return the position of the municipality in the registry, or -1 if none of them existed on that date
+     */
+    private int cercaNelGruppo(int chiave, int data) {
+
+        int basso = inizioGruppi[chiave];
+        int alto = inizioGruppi[chiave+1]-1;
+
+        while(basso <= alto) { //finds the last municipality whose validity started on or before the date
+            int medio = (basso+alto) >>> 1;
+            if(inizioValidita[gruppi[medio]] <= data) {
+                basso = medio+1;
+            }
+            else {
+                alto = medio-1;
+            }
+        }
+
+        if(alto < inizioGruppi[chiave] || fineValidita[gruppi[alto]] < data) { //the date comes before every municipality, or after the end of the last one
+            return -1;
+        }
+
+        return gruppi[alto];
+    }
+
+    /**
+     * Suggests the municipalities whose name starts with the given text, like while it's being typed, in alphabetical order.
+     * Case and accents are ignored. The text can also be qualified with the province, like "Roma, R" or "Roma (RM)":
+     * then the name must be complete and the province code must start with the text after it.
+     * The time depends on the number of results, not on the size of the registry
+     * @param testo start of the municipality name, optionally followed by the start of the province code
+     * @param limite maximum number of results
+     * @return positions in the registry of the municipalities found, at most "limite"
+     */
+    public int[] suggerisci(CharSequence testo, int limite) {
+
+        if(limite <= 0) {
+            return new int[0];
+        }
+
+        IndicePrefissi indicePrefissi = prefissi;
+        if(indicePrefissi == null) { //there's no harm if two threads build it at the same time, they build the same index
+            String[] comuniNormalizzati = new String[comuni.length];
+            String[] provinceNormalizzate = new String[comuni.length];
+            for (int i=0; i<comuni.length; i++) {
+                comuniNormalizzati[i] = Traslitterazione.piega(comuni[i]).toUpperCase();
+                provinceNormalizzate[i] = province[i].toUpperCase();
+            }
+            indicePrefissi = new IndicePrefissi(comuniNormalizzati, provinceNormalizzate);
+            prefissi = indicePrefissi;
+        }
+
+        String ricerca = testo.toString().stripLeading();
+        int separatore = ricerca.indexOf(',');
+        if(separatore < 0) {
+            separatore = ricerca.indexOf('(');
+        }
+
+        if(separatore < 0) {
+            return indicePrefissi.cerca(Traslitterazione.piega(ricerca).toUpperCase(), limite);
+        }
+
+        String nome = Traslitterazione.piega(ricerca.substring(0, separatore).strip()).toUpperCase();
+        String provincia = ricerca.substring(separatore+1).replace(")", "").strip().toUpperCase();
+        return indicePrefissi.cerca(nome, provincia, limite);
+    }
+
+    /**
+     * Searches the municipality with the given municipality code (reverse lookup), without any hashing or allocation
+     * @param codice text containing the municipality code (like "A001")
+     * @param inizio position of the code in the text
+     * @return the position of the municipality in the registry, or -1 if the code is malformed or there's no municipality with that code
+     */
+    public int cercaCodice(CharSequence codice, int inizio) {
+
+        int numero = numeroCodice(codice, inizio);
+
+        return numero < 0 ? -1 : perCodice[numero];
+    }
+
+    /**
+     * Searches the municipality with the given municipality code (reverse lookup), without any hashing or allocation
+     * @param codice municipality code (like "A001")
+     * @return the position of the municipality in the registry, or -1 if the code is malformed or there's no municipality with that code
+     */
+    public int cercaCodice(CharSequence codice) {
+
+        if(codice.length() != 4) {
+            return -1;
+        }
+
+        return cercaCodice(codice, 0);
+    }
+
+    /**
+     * Searches the municipality with the given municipality code (reverse lookup), reading it from a char array
+     * @param codice array containing the municipality code
+     * @param inizio position of the code in the array
+     * @return the position of the municipality in the registry, or -1 if the code is malformed or there's no municipality with that code
+     */
+    public int cercaCodice(char[] codice, int inizio) {
+
+        if(inizio < 0 || codice.length < inizio+4) {
+            return -1;
+        }
+
+        int numero = numeroCodice(codice[inizio], codice[inizio+1], codice[inizio+2], codice[inizio+3]);
+
+        return numero < 0 ? -1 : perCodice[numero];
+    }
+
+    /**
+     * Searches the municipality with the given municipality code, already converted with {@link #numeroCodice(char, char, char, char)}
+     * @param numero number of the municipality code
+     * @return the position of the municipality in the registry, or -1 if the number isn't valid or there's no municipality with that code
+     */
+    int cercaNumero(int numero) {
+        return numero < 0 || numero >= NUMEROCODICI ? -1 : perCodice[numero];
+    }
+
+    /**
+     * Returns a registry with the same municipalities as this one, indexed with the given strategy
+     * @param strategia strategy used to index the municipalities
+     * @return this registry if it already uses that strategy, otherwise a new one
+     */
+    public RegistroComuni conStrategia(Strategia strategia) {
+
+        if(strategia == this.strategia) {
+            return this;
+        }
+
+        return new RegistroComuni(comuni, province, codici, alias, provinceAlias, comuniAlias, inizioValidita, fineValidita, strategia);
+    }
+
+    /**
+     * Returns the strategy used to index the municipalities of this registry
+     * @return lookup strategy
+     */
+    public Strategia getStrategia() {
+        return strategia;
+    }
+
+    /**
+     * Finds the municipality code of the given municipality and province
+     * @param comune municipality, case and accents are ignored
+     * @param provincia province code, case is ignored
+     * @return the municipality code, or null if the municipality doesn't exist
+     */
+    public String codiceComune(String comune, String provincia) {
+
+        int posizione = cerca(comune, provincia);
+
+        return posizione < 0 ? null : codici[posizione];
+    }
+
+    /**
+     * Finds the municipality code of the given municipality and province that existed on the given date
+     * @param comune municipality, case and accents are ignored
+     * @param provincia province code, case is ignored
+     * @param anno year
+     * @param mese month
+     * @param giorno day
+     * @return the municipality code, or null if there was no municipality with that name on that date
+     */
+    public String codiceComune(String comune, String provincia, int anno, int mese, int giorno) {
+
+        int posizione = cerca(comune, provincia, anno, mese, giorno);
+
+        return posizione < 0 ? null : codici[posizione];
+    }
+
+    /**
+     * Returns how many municipalities are in the registry
+     * @return number of municipalities
+     */
+    public int size() {
+        return comuni.length;
+    }
+
+    /**
+     * Returns the name of the municipality at the given position
+     * @param posizione position in the registry, from 0 to size()-1
+     * @return municipality name
+     */
+    public String getComune(int posizione) {
+        return comuni[posizione];
+    }
+
+    /**
+     * Returns the province code of the municipality at the given position
+     * @param posizione position in the registry, from 0 to size()-1
+     * @return province code
+     */
+    public String getProvincia(int posizione) {
+        return province[posizione];
+    }
+
+    /**
+     * Returns the municipality code of the municipality at the given position
+     * @param posizione position in the registry, from 0 to size()-1
+     * @return municipality code
+     */
+    public String getCodice(int posizione) {
+        return codici[posizione];
+    }
+
+    /**
+     * Returns the first day in which the municipality at the given position existed
+     * @param posizione position in the registry, from 0 to size()-1
+     * @return start of validity, or null if the municipality has always existed
+     */
+    public LocalDate getInizioValidita(int posizione) {
+        return inizioValidita[posizione] == DALSEMPRE ? null : LocalDate.of(inizioValidita[posizione]/10000, inizioValidita[posizione]/100%100, inizioValidita[posizione]%100);
+    }
+
+    /**
+     * Returns the last day in which the municipality at the given position existed
+     * @param posizione position in the registry, from 0 to size()-1
+     * @return end of validity, or null if the municipality still exists
+     */
+    public LocalDate getFineValidita(int posizione) {
+        return fineValidita[posizione] == PERSEMPRE ? null : LocalDate.of(fineValidita[posizione]/10000, fineValidita[posizione]/100%100, fineValidita[posizione]%100);
+    }
+
+    /**
+     * Checks if the municipality at the given position existed on the given date
+     * @param posizione position in the registry, from 0 to size()-1
+     * @param anno year
+     * @param mese month
+     * @param giorno day
+     * @return true if the date is in the validity interval of the municipality
+     */
+    public boolean isValido(int posizione, int anno, int mese, int giorno) {
+        return isValido(posizione, data(anno, mese, giorno));
+    }
+
+    /**
+     * Checks if the municipality at the given position existed on the given date
+     * @param posizione position in the registry, from 0 to size()-1
+     * @param data date, as yyyymmdd (see {@link #data(int, int, int)})
+     * @return true if the date is in the validity interval of the municipality
+     */
+    boolean isValido(int posizione, int data) {
+        return inizioValidita[posizione] <= data && data <= fineValidita[posizione];
+    }
+
+    /**
+     * Writes a date as a single number, yyyymmdd, so that two dates can be compared like numbers
+     * @param anno year
+     * @param mese month
+     * @param giorno day
+     * @return the date as yyyymmdd
+     */
+    static int data(int anno, int mese, int giorno) {
+        return anno*10000 + mese*100 + giorno;
+    }
+
+    /**
+     * Returns today's date, as yyyymmdd. It's computed again only when the day changes, like {@link Persona#annoCorrente()}
+     * @return today's date
+     */
+    static int oggi() {
+
+        if(System.currentTimeMillis() >= fineGiorno) {
+
+            ZonedDateTime adesso = ZonedDateTime.now();
+
+            ultimoGiorno = data(adesso.getYear(), adesso.getMonthValue(), adesso.getDayOfMonth()); //written before the end of the day, so whoever sees the new end also sees the new day
+            fineGiorno = adesso.toLocalDate().plusDays(1).atStartOfDay(adesso.getZone()).toInstant().toEpochMilli();
+        }
+
+        return ultimoGiorno;
+    }
+
+    /**
+     * Converts a municipality code into a number that fits in 2 bytes: the letter is the thousands (A = 0, B = 1, ...), the 3 digits are the rest (A001 = 1, B001 = 1001, ...)
+     * @param codice text containing the municipality code, one uppercase letter followed by 3 digits
+     * @param inizio position of the code in the text
+     * @return the number corresponding to the code, from 0 to {@link #NUMEROCODICI}-1, or -1 if the code isn't formed by one letter and 3 digits
+     */
+    static int numeroCodice(CharSequence codice, int inizio) {
+
+        if(codice.length() < inizio+4) {
+            return -1;
+        }
+
+        return numeroCodice(codice.charAt(inizio), codice.charAt(inizio+1), codice.charAt(inizio+2), codice.charAt(inizio+3));
+    }
+
+    /**
+     * Converts a municipality code into a number that fits in 2 bytes, see {@link #numeroCodice(CharSequence, int)}
+     * @param lettera letter of the code
+     * @param centinaia first digit of the code
+     * @param decine second digit of the code
+     * @param unita third digit of the code
+     * @return the number corresponding to the code, from 0 to {@link #NUMEROCODICI}-1, or -1 if the code isn't formed by one letter and 3 digits
+     */
+    static int numeroCodice(char lettera, char centinaia, char decine, char unita) {
+
+        if(lettera < 'A' || lettera > 'Z' || centinaia < '0' || centinaia > '9' || decine < '0' || decine > '9' || unita < '0' || unita > '9') {
+            return -1;
+        }
+
+        return (lettera-'A')*1000 + (centinaia-'0')*100 + (decine-'0')*10 + (unita-'0');
+    }
+
+    /**
+     * Converts the number generated by {@link #numeroCodice(CharSequence, int)} back to the municipality code
+     * @param numero number from 0 to {@link #NUMEROCODICI}-1
+     * @return the municipality code
+     */
+    static String codiceDaNumero(int numero) {
+
+        char[] codice = new char[4];
+
+        codice[0] = (char)('A' + numero/1000);
+        codice[1] = (char)('0' + numero/100%10);
+        codice[2] = (char)('0' + numero/10%10);
+        codice[3] = (char)('0' + numero%10);
+
+        return new String(codice);
+    }
+}
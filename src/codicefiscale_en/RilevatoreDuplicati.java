@@ -0,0 +1,720 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the fiscal codes that appear in more than one row, among millions of generated codes: people with the same code
+ * (omocodia that the encoder can't resolve) and rows repeated exactly.
+ * Every row is added with its code, a reference (like its position in the file) and a fingerprint of its content, to tell repeated rows from different people.
+ * <p>
+ * The codes are kept packed ({@link CodiceCompatto}) in an open addressing hash table made of primitive arrays, the rows of the same code in a chain.
+ * When the table would need more than the memory budget, its rows are written to a temporary file sorted by code (a run) and the table is emptied;
+ * at the end the runs are merged, so the codes with more rows are found with any number of rows. Without runs the table is read directly.
+ * @author Pietro P.
+ */
+public final class RilevatoreDuplicati implements Closeable {
+    
+    /**
+     * Default memory budget, in bytes
+     */
+    public static final long MEMORIAPREDEFINITA = 64L << 20;
+    
+    private static final int BYTERIGA = 60; //memory used by every row: reference, fingerprint and chain (20 bytes) and 2 slots of the table (20 bytes each)
+    private static final int RIGHEINIZIALI = 1024; //rows that fit in the table when it's created
+    private static final int BUFFER = 1 << 16; //size of the buffers of the runs
+    
+    private final long memoria; //memory budget, in bytes
+    private final File cartella; //directory of the runs
+    private final List<File> run = new ArrayList<>(); //files with the rows already written, sorted by code
+    
+    private long[] alti; //high long of the code of every slot
+    private long[] bassi; //low long of the code of every slot
+    private int[] teste; //last row of the code of every slot + 1, 0 if the slot is empty
+    private int maschera; //size of the table - 1, the size is a power of 2
+    
+    private long[] riferimenti; //reference of every row
+    private long[] impronte; //fingerprint of every row
+    private int[] precedenti; //previous row with the same code + 1, 0 if it's the first one
+    private int righe; //rows in memory
+    private int codici; //different codes in memory
+    
+    private long totaleRighe; //rows added, written in the runs included
+    private boolean rilevato; //true after the groups are reported
+    
+    private long[] gruppoRiferimenti = new long[16]; //references of the group being reported
+    private long[] gruppoImpronte = new long[16]; //fingerprints of the group being reported
+    
+    /**
+     * Constructs a detector that uses the default memory budget and the default temporary directory
+     */
+    public RilevatoreDuplicati() {
+        this(MEMORIAPREDEFINITA, null);
+    }
+    
+    /**
+     * Constructs a detector
+     * @param memoria memory budget for the table, in bytes (the buffers of the runs are not included)
+     * @param cartella directory in which the runs are written, null for the default temporary directory
+     * @throws IllegalArgumentException if the budget is too small for the initial table
+     */
+    public RilevatoreDuplicati(long memoria, File cartella) {
+        
+        if(memoria < (long)RIGHEINIZIALI*BYTERIGA) {
+            throw new IllegalArgumentException("Memoria insufficiente per il rilevatore.");
+        }
+        
+        this.memoria = memoria;
+        this.cartella = cartella;
+        alloca(RIGHEINIZIALI);
+    }
+    
+    /**
+     * Adds a row with its fiscal code
+     * @param codice array containing the code
+     * @param inizio position of the first character of the code in the array
+     * @param riferimento reference to the row, returned with the groups
+     * @param impronta fingerprint of the content of the row, rows with the same fingerprint are considered the same
+     * @throws IOException if the table is full and a run can't be written
+     * @throws IllegalArgumentException if the code isn't valid
+     */
+    public void aggiungi(char[] codice, int inizio, long riferimento, long impronta) throws IOException {
+        
+        long alto = CodiceCompatto.alto(codice, inizio);
+        long basso = CodiceCompatto.basso(codice, inizio);
+        if(alto < 0 || basso < 0) {
+            throw new IllegalArgumentException("Formato del codice fiscale non valido.");
+        }
+        
+        aggiungi(alto, basso, riferimento, impronta);
+    }
+    
+    /**
+     * Adds a row with its packed fiscal code
+     * @param alto high long of the code
+     * @param basso low long of the code
+     * @param riferimento reference to the row, returned with the groups
+     * @param impronta fingerprint of the content of the row, rows with the same fingerprint are considered the same
+     * @throws IOException if the table is full and a run can't be written
+     * @throws IllegalStateException if the groups were already reported
+     */
+    public void aggiungi(long alto, long basso, long riferimento, long impronta) throws IOException {
+        
+        if(rilevato) {
+            throw new IllegalStateException("Rilevamento già eseguito.");
+        }
+        
+        if(righe == riferimenti.length && !cresci()) {
+            scriviRun();
+        }
+        
+        int slot = slot(alto, basso);
+        if(teste[slot] == 0) {
+            alti[slot] = alto;
+            bassi[slot] = basso;
+            codici++;
+        }
+        
+        riferimenti[righe] = riferimento;
+        impronte[righe] = impronta;
+        precedenti[righe] = teste[slot];
+        teste[slot] = ++righe;
+        totaleRighe++;
+    }
+    
+    /**
+     * Returns the number of rows added
+     * @return the rows added so far
+     */
+    public long getRighe() {
+        return totaleRighe;
+    }
+    
+    /**
+     * Returns the number of runs written to disk
+     * @return 0 if all of the rows fit in the memory budget
+     */
+    public int getRun() {
+        return run.size();
+    }
+    
+    /**
+     * Reports every code that has more than one row, in the order of the codes, with its rows in the order in which they were added.
+     * It can be called only once, then no rows can be added
+     * @param gestore receives every group
+     * @return number of groups
+     * @throws IOException if the runs can't be read or written, or if the gestore throws it
+     * @throws IllegalStateException if the groups were already reported
+     */
+    public long rileva(GestoreGruppi gestore) throws IOException {
+        
+        if(rilevato) {
+            throw new IllegalStateException("Rilevamento già eseguito.");
+        }
+        rilevato = true;
+        
+        if(run.isEmpty()) {
+            return rilevaMemoria(gestore);
+        }
+        
+        if(righe > 0) {
+            scriviRun();
+        }
+        return rilevaRun(gestore);
+    }
+    
+    /**
+     * Deletes the runs
+     * @throws IOException if a run can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        
+        for (File file : run) {
+            Files.deleteIfExists(file.toPath());
+        }
+        run.clear();
+    }
+    
+    /**
+     * Receives the groups of rows with the same code
+     */
+    public interface GestoreGruppi {
+        
+        /**
+         * Called for every code with more than one row
+         * @param alto high long of the code
+         * @param basso low long of the code
+         * @param riferimenti references of the rows, reused for the next group
+         * @param impronte fingerprints of the rows, reused for the next group
+         * @param numero number of rows of the group
+         * @throws IOException if the group can't be handled
+         */
+        void gruppo(long alto, long basso, long[] riferimenti, long[] impronte, int numero) throws IOException;
+    }
+    
+    /**
+     * Creates the arrays for a number of rows, the table has twice as many slots so it's never more than half full
+     * @param numero number of rows
+     */
+    private void alloca(int numero) {
+        
+        riferimenti = new long[numero];
+        impronte = new long[numero];
+        precedenti = new int[numero];
+        alti = new long[numero*2];
+        bassi = new long[numero*2];
+        teste = new int[numero*2];
+        maschera = numero*2 - 1;
+    }
+    
+    /**
+     * Finds the slot of a code: the one that contains it or the empty one in which it goes
+     * @param alto high long of the code
+     * @param basso low long of the code
+     * @return position in the table
+     */
+    private int slot(long alto, long basso) {
+        
+        int slot = (int)CodiceCompatto.hash(alto, basso) & maschera;
+        
+        while(teste[slot] != 0 && (alti[slot] != alto || bassi[slot] != basso)) {
+            slot = (slot+1) & maschera;
+        }
+        
+        return slot;
+    }
+    
+    /**
+     * Doubles the capacity of the table, if it stays in the memory budget
+     * @return false if the budget is already reached
+     */
+    private boolean cresci() {
+        
+        long numero = (long)riferimenti.length*2;
+        if(numero*BYTERIGA > memoria || numero*2 > (1 << 30)) {
+            return false;
+        }
+        
+        long[] vecchiAlti = alti;
+        long[] vecchiBassi = bassi;
+        int[] vecchieTeste = teste;
+        long[] vecchiRiferimenti = riferimenti;
+        long[] vecchieImpronte = impronte;
+        int[] vecchiPrecedenti = precedenti;
+        
+        alloca((int)numero);
+        System.arraycopy(vecchiRiferimenti, 0, riferimenti, 0, righe);
+        System.arraycopy(vecchieImpronte, 0, impronte, 0, righe);
+        System.arraycopy(vecchiPrecedenti, 0, precedenti, 0, righe);
+        
+        //the chains don't change, only the slots of the codes
+        for (int i=0; i<vecchieTeste.length; i++) {
+            if(vecchieTeste[i] != 0) {
+                int slot = slot(vecchiAlti[i], vecchiBassi[i]);
+                alti[slot] = vecchiAlti[i];
+                bassi[slot] = vecchiBassi[i];
+                teste[slot] = vecchieTeste[i];
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Returns the occupied slots sorted by code
+     * @return positions in the table
+     */
+    private int[] slotOrdinati() {
+        
+        int[] ordine = new int[codici];
+        int numero = 0;
+        for (int i=0; i<teste.length; i++) {
+            if(teste[i] != 0) {
+                ordine[numero++] = i;
+            }
+        }
+        
+        ordina(ordine, 0, numero-1);
+        return ordine;
+    }
+    
+    /**
+     * Sorts slots by code (quicksort, insertion sort for small parts), without boxing them to use a Comparator
+     * @param ordine positions in the table
+     * @param da first position to sort
+     * @param a last position to sort (included)
+     */
+    private void ordina(int[] ordine, int da, int a) {
+        
+        while(a - da > 16) {
+            
+            int perno = ordine[(da+a) >>> 1];
+            int i = da;
+            int j = a;
+            
+            while(i <= j) {
+                while(confronta(ordine[i], perno) < 0) {
+                    i++;
+                }
+                while(confronta(ordine[j], perno) > 0) {
+                    j--;
+                }
+                if(i <= j) {
+                    int scambio = ordine[i];
+                    ordine[i++] = ordine[j];
+                    ordine[j--] = scambio;
+                }
+            }
+            
+            //recursion on the smaller part, loop on the bigger one, so the stack stays logarithmic
+            if(j - da < a - i) {
+                ordina(ordine, da, j);
+                da = i;
+            }
+            else {
+                ordina(ordine, i, a);
+                a = j;
+            }
+        }
+        
+        for (int i=da+1; i<=a; i++) {
+            int slot = ordine[i];
+            int j = i-1;
+            for (; j>=da && confronta(ordine[j], slot) > 0; j--) {
+                ordine[j+1] = ordine[j];
+            }
+            ordine[j+1] = slot;
+        }
+    }
+    
+    /**
+     * Compares the codes of two slots
+     * @param slot1 first slot
+     * @param slot2 second slot
+     * @return the order of the codes
+     */
+    private int confronta(int slot1, int slot2) {
+        return CodiceCompatto.confronta(alti[slot1], bassi[slot1], alti[slot2], bassi[slot2]);
+    }
+    
+    /**
+     * Puts the rows of a slot in the group buffers, in the order in which they were added
+     * @param slot position in the table
+     * @return number of rows
+     */
+    private int gruppo(int slot) {
+        
+        int numero = 0;
+        for (int riga = teste[slot]; riga != 0; riga = precedenti[riga-1]) {
+            numero++;
+        }
+        spazioGruppo(numero);
+        
+        int posizione = numero;
+        for (int riga = teste[slot]; riga != 0; riga = precedenti[riga-1]) {
+            posizione--;
+            gruppoRiferimenti[posizione] = riferimenti[riga-1];
+            gruppoImpronte[posizione] = impronte[riga-1];
+        }
+        
+        return numero;
+    }
+    
+    /**
+     * Makes sure that the group buffers can contain a number of rows
+     * @param numero number of rows
+     */
+    private void spazioGruppo(int numero) {
+        
+        if(numero > gruppoRiferimenti.length) {
+            int lunghezza = Math.max(numero, gruppoRiferimenti.length*2);
+            gruppoRiferimenti = Arrays.copyOf(gruppoRiferimenti, lunghezza);
+            gruppoImpronte = Arrays.copyOf(gruppoImpronte, lunghezza);
+        }
+    }
+    
+    /**
+     * Writes the rows in memory to a new run, sorted by code, and empties the table
+     * @throws IOException if the run can't be written
+     */
+    private void scriviRun() throws IOException {
+        
+        File file = File.createTempFile("duplicati", ".run", cartella);
+        run.add(file);
+        
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER))) {
+            for (int slot : slotOrdinati()) {
+                int numero = gruppo(slot);
+                for (int i=0; i<numero; i++) {
+                    output.writeLong(alti[slot]);
+                    output.writeLong(bassi[slot]);
+                    output.writeLong(gruppoRiferimenti[i]);
+                    output.writeLong(gruppoImpronte[i]);
+                }
+            }
+        }
+        
+        Arrays.fill(teste, 0);
+        righe = 0;
+        codici = 0;
+    }
+    
+    /**
+     * Reports the groups when all of the rows are in memory
+     * @param gestore receives every group
+     * @return number of groups
+     * @throws IOException if the gestore throws it
+     */
+    private long rilevaMemoria(GestoreGruppi gestore) throws IOException {
+        
+        long gruppi = 0;
+        
+        for (int slot : slotOrdinati()) {
+            if(precedenti[teste[slot]-1] != 0) { //more than one row
+                int numero = gruppo(slot);
+                gestore.gruppo(alti[slot], bassi[slot], gruppoRiferimenti, gruppoImpronte, numero);
+                gruppi++;
+            }
+        }
+        
+        return gruppi;
+    }
+    
+    /**
+     * Reports the groups by merging the runs: the rows of the same code are consecutive in every run, and the runs are read at the same time,
+     * always taking the smallest code (from the first run in case of equal codes, to keep the order in which the rows were added)
+     * @param gestore receives every group
+     * @return number of groups
+     * @throws IOException if the runs can't be read or the gestore throws it
+     */
+    private long rilevaRun(GestoreGruppi gestore) throws IOException {
+        
+        //the table isn't needed anymore
+        alloca(1);
+        
+        PriorityQueue<Run> coda = new PriorityQueue<>(run.size(), (r1, r2) -> {
+            int confronto = CodiceCompatto.confronta(r1.alto, r1.basso, r2.alto, r2.basso);
+            return confronto != 0 ? confronto : Integer.compare(r1.numero, r2.numero);
+        });
+        
+        long gruppi = 0;
+        
+        try {
+            for (int i=0; i<run.size(); i++) {
+                Run lettore = new Run(run.get(i), i);
+                if(lettore.avanza()) {
+                    coda.add(lettore);
+                }
+                else {
+                    lettore.close();
+                }
+            }
+            
+            while(!coda.isEmpty()) {
+                
+                long alto = coda.peek().alto;
+                long basso = coda.peek().basso;
+                int numero = 0;
+                
+                while(!coda.isEmpty() && coda.peek().alto == alto && coda.peek().basso == basso) {
+                    Run lettore = coda.poll();
+                    spazioGruppo(numero+1);
+                    gruppoRiferimenti[numero] = lettore.riferimento;
+                    gruppoImpronte[numero] = lettore.impronta;
+                    numero++;
+                    if(lettore.avanza()) {
+                        coda.add(lettore);
+                    }
+                    else {
+                        lettore.close();
+                    }
+                }
+                
+                if(numero > 1) {
+                    gestore.gruppo(alto, basso, gruppoRiferimenti, gruppoImpronte, numero);
+                    gruppi++;
+                }
+            }
+        }
+        finally {
+            for (Run lettore : coda) {
+                lettore.close();
+            }
+        }
+        
+        return gruppi;
+    }
+    
+    /**
+     * Reader of a run, with its current row
+     */
+    private static final class Run implements Closeable {
+        
+        private final DataInputStream input; //file of the run
+        private final int numero; //position of the run, runs written first contain rows added first
+        private long alto; //high long of the code of the current row
+        private long basso; //low long of the code of the current row
+        private long riferimento; //reference of the current row
+        private long impronta; //fingerprint of the current row
+        
+        private Run(File file, int numero) throws IOException {
+            
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER));
+            this.numero = numero;
+        }
+        
+        /**
+         * Reads the next row
+         * @return false if the run is over
+         * @throws IOException if the run can't be read
+         */
+        private boolean avanza() throws IOException {
+            
+            try {
+                alto = input.readLong();
+            }
+            catch(EOFException e) {
+                return false;
+            }
+            basso = input.readLong();
+            riferimento = input.readLong();
+            impronta = input.readLong();
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    /**
+     * Finds the repeated codes in the output of {@link LavoroLotto} and writes a report with every group:
+     * a row with the code, the number of rows and of different rows, then every row of the group (without the code) preceded by its position in the file.
+     * Rows with errors are skipped
+     * @param uscitaLotto output file of the batch job
+     * @param separatore field separator used by the job
+     * @param rapporto file in which the report is written (UTF-8)
+     * @param memoria memory budget of the detector, in bytes
+     * @return number of groups
+     * @throws IOException if a file can't be read or written
+     */
+    public static long analizza(File uscitaLotto, char separatore, File rapporto, long memoria) throws IOException {
+        
+        File cartella = rapporto.getAbsoluteFile().getParentFile();
+        char[] codice = new char[CodiceFiscale.LUNGHEZZA];
+        
+        try (RilevatoreDuplicati rilevatore = new RilevatoreDuplicati(memoria, cartella)) {
+            
+            LettoreMappato lettore = new LettoreMappato(uscitaLotto);
+            for (LettoreMappato.Regione regione : lettore.dividi(1)) {
+                long inizioRegione = regione.getInizio();
+                try {
+                    regione.leggi((dati, inizio, fine) -> {
+                        //the code is the last field: the row is skipped if it's an error or if it's missing
+                        int campo = fine - CodiceFiscale.LUNGHEZZA;
+                        if(campo <= inizio || dati.get(campo-1) != separatore) {
+                            return;
+                        }
+                        for (int i=0; i<CodiceFiscale.LUNGHEZZA; i++) {
+                            codice[i] = (char)(dati.get(campo+i) & 0xFF);
+                        }
+                        long alto = CodiceCompatto.alto(codice, 0);
+                        long basso = CodiceCompatto.basso(codice, 0);
+                        if(alto < 0 || basso < 0) {
+                            return;
+                        }
+                        try {
+                            rilevatore.aggiungi(alto, basso, inizioRegione+inizio, impronta(dati, inizio, campo-1));
+                        }
+                        catch(IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                catch(UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            
+            try (RandomAccessFile righe = new RandomAccessFile(uscitaLotto, "r");
+                    Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rapporto), StandardCharsets.UTF_8), BUFFER)) {
+                
+                return rilevatore.rileva((alto, basso, riferimenti, impronte, numero) -> {
+                    
+                    CodiceCompatto.scrivi(alto, basso, codice, 0);
+                    long[] distinte = Arrays.copyOf(impronte, numero);
+                    Arrays.sort(distinte);
+                    int diverse = 1;
+                    for (int i=1; i<numero; i++) {
+                        if(distinte[i] != distinte[i-1]) {
+                            diverse++;
+                        }
+                    }
+                    
+                    output.write(codice);
+                    output.write(": " + numero + " righe, " + diverse + (diverse == 1 ? " diversa" : " diverse") + "\n");
+                    for (int i=0; i<numero; i++) {
+                        output.write("  " + riferimenti[i] + ": " + leggiRiga(righe, riferimenti[i], separatore) + "\n");
+                    }
+                });
+            }
+        }
+    }
+    
+    /**
+     * Fingerprint of the bytes of a row (FNV-1a, 64 bits)
+     * @param dati buffer containing the row
+     * @param inizio position of the first byte
+     * @param fine position after the last byte
+     * @return the fingerprint
+     */
+    private static long impronta(ByteBuffer dati, int inizio, int fine) {
+        
+        long impronta = 0xCBF29CE484222325L;
+        for (int i=inizio; i<fine; i++) {
+            impronta = (impronta ^ (dati.get(i) & 0xFF)) * 0x100000001B3L;
+        }
+        
+        return impronta;
+    }
+    
+    /**
+     * Reads a row of the output of the batch job, without the code
+     * @param file output file of the batch job
+     * @param posizione position of the first byte of the row
+     * @param separatore field separator
+     * @return the row, as it was in the input of the job
+     * @throws IOException if the file can't be read
+     */
+    private static String leggiRiga(RandomAccessFile file, long posizione, char separatore) throws IOException {
+        
+        byte[] lettura = new byte[256];
+        int lunghezza = 0;
+        file.seek(posizione);
+        
+        while(true) {
+            if(lunghezza == lettura.length) {
+                lettura = Arrays.copyOf(lettura, lettura.length*2);
+            }
+            int letti = file.read(lettura, lunghezza, lettura.length-lunghezza);
+            if(letti < 0) {
+                break;
+            }
+            int fine = lunghezza + letti;
+            while(lunghezza < fine && lettura[lunghezza] != '\n') {
+                lunghezza++;
+            }
+            if(lunghezza < fine) {
+                break;
+            }
+        }
+        
+        if(lunghezza > 0 && lettura[lunghezza-1] == '\r') {
+            lunghezza--;
+        }
+        lunghezza = Math.max(0, lunghezza - CodiceFiscale.LUNGHEZZA - 1); //the separator and the code are removed
+        
+        return new String(lettura, 0, lunghezza, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Runs the detector from the command line on the output of {@link LavoroLotto}
+     * @param args output file of the batch job, report file and optionally the memory budget in MB and the field separator
+     */
+    public static void main(String[] args) {
+        
+        if(args.length < 2 || args.length > 4 || (args.length == 4 && args[3].length() != 1)) {
+            System.err.println("Uso: RilevatoreDuplicati <uscita del lotto> <rapporto> [memoria in MB] [separatore]");
+            System.exit(2);
+        }
+        
+        try {
+            long memoria = args.length > 2 ? Long.parseLong(args[2]) << 20 : MEMORIAPREDEFINITA;
+            char separatore = args.length > 3 ? args[3].charAt(0) : LavoroLotto.SEPARATORE;
+            long gruppi = analizza(new File(args[0]), separatore, new File(args[1]), memoria);
+            System.out.println("Codici ripetuti: " + gruppi);
+        }
+        catch(Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
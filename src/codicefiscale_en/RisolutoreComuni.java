@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Finds municipalities from names that are misspelled or written differently from the registry (like "REGGIO CALABRIA" for "REGGIO DI CALABRIA").
+ * Names are compared by their groups of 3 letters (trigrams): the index has, for every trigram, the list of the municipalities that contain it,
+ * so only the municipalities that share at least one trigram with the name are considered, and none of the names is compared character by character.
+ * The score of a municipality is the Dice coefficient of the two sets of trigrams (2 * common / (trigrams of the name + trigrams of the municipality)).
+ * <p>
+ * Names are compared without accents, case and symbols (apostrophes, dots, hyphens count as spaces).
+ * The usual abbreviations of the saints are expanded before comparing ("S. GIOVANNI" is searched as "SAN GIOVANNI", "SANTA GIOVANNI", ...,
+ * and every municipality keeps the best score of all of the expansions).
+ * If a date is given (like the birth date of a person), only the municipalities that existed on that date are considered, so a suppressed municipality
+ * is never proposed for someone born after it was suppressed.
+ * The index is built once and never modified, so the same instance can be used by any number of threads:
+ * every thread counts the common trigrams in its own arrays, created at its first search and reused by the next ones.
+ * @author Pietro P.
+ */
+public final class RisolutoreComuni {
+    
+    /**
+     * Default minimum score for {@link #risolvi(CharSequence, CharSequence)} to accept a municipality
+     */
+    public static final double SOGLIAPREDEFINITA = 0.6;
+    
+    /**
+     * Default minimum difference between the scores of the best and the second candidate for {@link #risolvi(CharSequence, CharSequence)} to accept the best one
+     */
+    public static final double MARGINEPREDEFINITO = 0.1;
+    
+    //abbreviations of the names of municipalities --> the words they can stand for
+    private static final Map<String, String[]> ABBREVIAZIONI = Map.of(
+            "S", new String[] {"SAN", "SANTA", "SANTO", "SANT"},
+            "SS", new String[] {"SANTI"},
+            "STA", new String[] {"SANTA"},
+            "STO", new String[] {"SANTO"});
+    private static final int MASSIMEVARIANTI = 16; //maximum number of expansions of a name, after that the abbreviations are left as they are
+    private static final Pattern SEPARATORI = Pattern.compile("[^A-Z]+"); //everything between the words of a name
+    
+    private static final int SIMBOLI = 27; //space and the 26 letters
+    private static final int TRIGRAMMI = SIMBOLI*SIMBOLI*SIMBOLI; //number of different trigrams
+    
+    private static volatile RisolutoreComuni predefinito; //resolver of the registry shared by the whole process
+    
+    private final RegistroComuni registro; //registry with all of the italian municipalities
+    private final double soglia; //minimum score to accept a municipality
+    private final double margine; //minimum difference between the scores of the best and the second candidate to accept the best one
+    private final int[] inizi; //where the list of every trigram starts in "comuni" (the list of trigram t ends where the one of t+1 starts)
+    private final int[] comuni; //lists of municipalities of every trigram, one after the other
+    private final int[] numeroTrigrammi; //number of different trigrams of every municipality
+    private final String[] province; //uppercase province code of every municipality
+    private final ThreadLocal<Conteggi> conteggi; //arrays used by every search, one for each thread
+    
+    /**
+     * Constructs a resolver for a registry, with the default minimum score and margin
+     * @param registro registry with all of the italian municipalities
+     */
+    public RisolutoreComuni(RegistroComuni registro) {
+        this(registro, SOGLIAPREDEFINITA, MARGINEPREDEFINITO);
+    }
+    
+    /**
+     * Constructs a resolver for a registry, with the default margin
+     * @param registro registry with all of the italian municipalities
+     * @param soglia minimum score (from 0 to 1) for {@link #risolvi(CharSequence, CharSequence)} to accept a municipality
+     * @throws IllegalArgumentException if the minimum score isn't between 0 and 1
+     */
+    public RisolutoreComuni(RegistroComuni registro, double soglia) {
+        this(registro, soglia, MARGINEPREDEFINITO);
+    }
+    
+    /**
+     * Constructs a resolver for a registry
+     * @param registro registry with all of the italian municipalities
+     * @param soglia minimum score (from 0 to 1) for {@link #risolvi(CharSequence, CharSequence)} to accept a municipality
+     * @param margine minimum difference (from 0 to 1) between the scores of the best and the second candidate for {@link #risolvi(CharSequence, CharSequence)}
+     * to accept the best one: with 0 only an exact tie is refused
+     * @throws IllegalArgumentException if the minimum score or the margin aren't between 0 and 1
+     */
+    public RisolutoreComuni(RegistroComuni registro, double soglia, double margine) {
+        
+        if(!(soglia >= 0 && soglia <= 1)) {
+            throw new IllegalArgumentException("La soglia deve essere compresa tra 0 e 1.");
+        }
+        if(!(margine >= 0 && margine <= 1)) {
+            throw new IllegalArgumentException("Il margine deve essere compreso tra 0 e 1.");
+        }
+        
+        this.registro = registro;
+        this.soglia = soglia;
+        this.margine = margine;
+        this.numeroTrigrammi = new int[registro.size()];
+        this.province = new String[registro.size()];
+        this.conteggi = ThreadLocal.withInitial(() -> new Conteggi(registro.size()));
+        
+        //first the trigrams of every municipality, then the lists are laid out one after the other
+        int[][] trigrammi = new int[registro.size()][];
+        int[] conteggi = new int[TRIGRAMMI+1];
+        for (int i=0; i<trigrammi.length; i++) {
+            trigrammi[i] = trigrammi(registro.getComune(i));
+            numeroTrigrammi[i] = trigrammi[i].length;
+            province[i] = registro.getProvincia(i).toUpperCase();
+            for (int trigramma : trigrammi[i]) {
+                conteggi[trigramma+1]++;
+            }
+        }
+        
+        inizi = new int[TRIGRAMMI+1];
+        for (int t=0; t<TRIGRAMMI; t++) {
+            inizi[t+1] = inizi[t] + conteggi[t+1];
+        }
+        comuni = new int[inizi[TRIGRAMMI]];
+        int[] fine = Arrays.copyOf(inizi, TRIGRAMMI);
+        for (int i=0; i<trigrammi.length; i++) {
+            for (int trigramma : trigrammi[i]) {
+                comuni[fine[trigramma]++] = i;
+            }
+        }
+    }
+    
+    /**
+     * Arrays in which a search counts the common trigrams of every municipality, reused by all of the searches of the same thread.
+     * After a search only the elements of the municipalities found are put back to 0, so the time doesn't depend on the size of the registry
+     */
+    private static final class Conteggi {
+        
+        private final int[] condivisi; //common trigrams of every municipality, all 0 between two searches
+        private final int[] trovati; //municipalities with at least one common trigram, the first ones of the array
+        
+        private Conteggi(int numero) {
+            
+            condivisi = new int[numero];
+            trovati = new int[numero];
+        }
+    }
+    
+    /**
+     * Returns the resolver of the registry shared by the whole process ({@link RegistroComuni#getIstanza()}), with the default minimum score
+     * @return the shared resolver
+     * @throws Exception if the municipality registry can't be loaded
+     */
+    public static RisolutoreComuni getPredefinito() throws Exception {
+        
+        RisolutoreComuni risolutore = predefinito;
+        
+        if(risolutore == null) { //there's no harm if two threads create it at the same time, they both index the same registry
+            risolutore = new RisolutoreComuni(RegistroComuni.getIstanza());
+            predefinito = risolutore;
+        }
+        
+        return risolutore;
+    }
+    
+    /**
+     * Returns the municipality registry used by this resolver
+     * @return municipality registry
+     */
+    public RegistroComuni getRegistro() {
+        return registro;
+    }
+    
+    /**
+     * Returns the minimum score to accept a municipality
+     * @return the score, from 0 to 1
+     */
+    public double getSoglia() {
+        return soglia;
+    }
+    
+    /**
+     * Returns the minimum difference between the scores of the best and the second candidate to accept the best one
+     * @return the margin, from 0 to 1
+     */
+    public double getMargine() {
+        return margine;
+    }
+    
+    /**
+     * Finds the municipalities that most resemble a name, from the most similar, among all of the municipalities of the registry (even the suppressed ones)
+     * @param comune municipality name, possibly misspelled or abbreviated
+     * @param provincia province code (case is ignored), or null to search in the whole registry
+     * @param limite maximum number of candidates
+     * @return the candidates, sorted by score (the highest first) and then by position in the registry; a municipality found exactly has score 1
+     */
+    public List<CandidatoComune> candidati(CharSequence comune, CharSequence provincia, int limite) {
+        return candidati(comune, provincia, -1, limite);
+    }
+    
+    /**
+     * Finds the municipalities that most resemble a name, from the most similar, among the municipalities that existed on the given date
+     * @param comune municipality name, possibly misspelled or abbreviated
+     * @param provincia province code (case is ignored), or null to search in the whole registry
+     * @param anno year, like the birth year
+     * @param mese month
+     * @param giorno day
+     * @param limite maximum number of candidates
+     * @return the candidates, sorted by score (the highest first) and then by position in the registry; a municipality found exactly has score 1
+     */
+    public List<CandidatoComune> candidati(CharSequence comune, CharSequence provincia, int anno, int mese, int giorno, int limite) {
+        return candidati(comune, provincia, RegistroComuni.data(anno, mese, giorno), limite);
+    }
+    
+    /**
+     * Finds the municipalities that most resemble a name, from the most similar
+     * @param comune municipality name
+     * @param provincia province code, or null to search in the whole registry
+     * @param data date as yyyymmdd on which the municipalities must have existed, -1 for any date
+     * @param limite maximum number of candidates
+     * @return the candidates, sorted by score and then by position in the registry
+     */
+    private List<CandidatoComune> candidati(CharSequence comune, CharSequence provincia, int data, int limite) {
+        
+        List<CandidatoComune> risultati = new ArrayList<>();
+        if(limite <= 0) {
+            return risultati;
+        }
+        
+        String filtro = provincia == null ? null : provincia.toString().strip().toUpperCase();
+        List<String> varianti = varianti(comune);
+        
+        if(filtro != null) { //the exact name is searched first in O(1), like the encoder does
+            for (String variante : varianti) {
+                int esatto = data < 0 ? registro.cerca(variante, filtro) : registro.cerca(variante, filtro, data);
+                if(esatto >= 0) {
+                    risultati.add(new CandidatoComune(registro, esatto, 1));
+                    return risultati;
+                }
+            }
+        }
+        
+        //the best ones are kept sorted in arrays as long as the limit, so nothing is created for the others
+        int[] migliori = new int[Math.min(limite, registro.size())];
+        double[] punteggi = new double[migliori.length];
+        int numeroMigliori = 0;
+        
+        Conteggi spazio = conteggi.get();
+        int[] condivisi = spazio.condivisi;
+        int[] trovati = spazio.trovati;
+        
+        for (String variante : varianti) {
+            
+            int[] trigrammi = trigrammi(variante);
+            if(trigrammi.length == 0) {
+                continue;
+            }
+            
+            //common trigrams of every municipality that has at least one, counted by reading the lists of the trigrams of the name
+            int numeroTrovati = 0;
+            for (int trigramma : trigrammi) {
+                for (int i=inizi[trigramma]; i<inizi[trigramma+1]; i++) {
+                    int posizione = comuni[i];
+                    if(condivisi[posizione]++ == 0) {
+                        trovati[numeroTrovati++] = posizione;
+                    }
+                }
+            }
+            
+            for (int j=0; j<numeroTrovati; j++) {
+                
+                int posizione = trovati[j];
+                int comuniTrigrammi = condivisi[posizione];
+                condivisi[posizione] = 0; //ready for the next variant or the next search of this thread
+                if((filtro != null && !province[posizione].equals(filtro)) || (data >= 0 && !registro.isValido(posizione, data))) {
+                    continue;
+                }
+                
+                double punteggio = 2.0*comuniTrigrammi / (trigrammi.length + numeroTrigrammi[posizione]);
+                numeroMigliori = inserisci(migliori, punteggi, numeroMigliori, posizione, punteggio);
+            }
+        }
+        
+        for (int i=0; i<numeroMigliori; i++) {
+            risultati.add(new CandidatoComune(registro, migliori[i], punteggi[i]));
+        }
+        
+        return risultati;
+    }
+    
+    /**
+     * Finds the municipality of a name, accepting it automatically only if it's clearly the right one:
+     * the best candidate must have at least the minimum score, and a score higher than the second one by at least the margin
+     * @param comune municipality name, possibly misspelled or abbreviated
+     * @param provincia province code (case is ignored), or null to search in the whole registry
+     * @return position of the municipality in the registry, or -1 if no municipality was accepted
+     */
+    public int risolvi(CharSequence comune, CharSequence provincia) {
+        return risolvi(candidati(comune, provincia, 2));
+    }
+    
+    /**
+     * Finds the municipality of a name among the ones that existed on the given date (like the birth date of a person), accepting it automatically
+     * only if it's clearly the right one, see {@link #risolvi(CharSequence, CharSequence)}. The municipality found can always be used by the encoder for that date
+     * @param comune municipality name, possibly misspelled or abbreviated
+     * @param provincia province code (case is ignored), or null to search in the whole registry
+     * @param anno year
+     * @param mese month
+     * @param giorno day
+     * @return position of the municipality in the registry, or -1 if no municipality was accepted
+     */
+    public int risolvi(CharSequence comune, CharSequence provincia, int anno, int mese, int giorno) {
+        return risolvi(candidati(comune, provincia, anno, mese, giorno, 2));
+    }
+    
+    /**
+     * Accepts the best of the candidates, if it has at least the minimum score and a score higher than the second one by at least the margin
+     * @param candidati the two best candidates
+     * @return position of the municipality in the registry, or -1 if no municipality was accepted
+     */
+    private int risolvi(List<CandidatoComune> candidati) {
+        
+        if(candidati.isEmpty() || candidati.get(0).getPunteggio() < soglia) {
+            return -1;
+        }
+        if(candidati.size() > 1) { //a tie is always refused, even without a margin
+            double distacco = candidati.get(0).getPunteggio() - candidati.get(1).getPunteggio();
+            if(distacco <= 0 || distacco < margine) {
+                return -1;
+            }
+        }
+        
+        return candidati.get(0).getPosizione();
+    }
+    
+    /**
+     * Inserts a municipality in the sorted list of the best candidates, if its score is high enough.
+     * If the municipality is already in the list (found with another expansion of the name) only its best score is kept
+     * @param migliori positions of the best municipalities, sorted by score and then by position
+     * @param punteggi scores of the best municipalities
+     * @param numero number of municipalities in the list
+     * @param posizione position of the municipality to insert
+     * @param punteggio score of the municipality to insert
+     * @return the new number of municipalities in the list
+     */
+    private static int inserisci(int[] migliori, double[] punteggi, int numero, int posizione, double punteggio) {
+        
+        for (int i=0; i<numero; i++) {
+            if(migliori[i] == posizione) {
+                if(punteggi[i] >= punteggio) {
+                    return numero;
+                }
+                System.arraycopy(migliori, i+1, migliori, i, numero-i-1); //removed, then inserted again with the new score
+                System.arraycopy(punteggi, i+1, punteggi, i, numero-i-1);
+                numero--;
+                break;
+            }
+        }
+        
+        int k = numero;
+        while(k > 0 && (punteggi[k-1] < punteggio || (punteggi[k-1] == punteggio && migliori[k-1] > posizione))) {
+            k--;
+        }
+        if(k < migliori.length) {
+            int spostati = Math.min(numero, migliori.length-1) - k;
+            System.arraycopy(migliori, k, migliori, k+1, spostati);
+            System.arraycopy(punteggi, k, punteggi, k+1, spostati);
+            migliori[k] = posizione;
+            punteggi[k] = punteggio;
+            numero = Math.min(numero+1, migliori.length);
+        }
+        
+        return numero;
+    }
+    
+    /**
+     * Expands the abbreviations of a name ("S. GIOVANNI" --> "SAN GIOVANNI", "SANTA GIOVANNI", "SANTO GIOVANNI", "SANT GIOVANNI").
+     * The words are separated by everything that isn't a letter, so "S.GIOVANNI" is expanded too
+     * @param nome municipality name
+     * @return every expansion of the name, or only the name (without accents, uppercase) if it has no abbreviations or too many
+     */
+    private static List<String> varianti(CharSequence nome) {
+        
+        String piegato = Traslitterazione.piega(nome.toString()).toUpperCase();
+        
+        List<String> varianti = new ArrayList<>();
+        varianti.add("");
+        boolean abbreviato = false;
+        for (String parola : SEPARATORI.split(piegato)) {
+            if(parola.isEmpty()) {
+                continue;
+            }
+            String[] espansioni = ABBREVIAZIONI.get(parola);
+            if(espansioni == null) {
+                espansioni = new String[] {parola};
+            }
+            else {
+                abbreviato = true;
+            }
+            if(varianti.size()*espansioni.length > MASSIMEVARIANTI) { //too many abbreviations, the name is compared as it is
+                return List.of(piegato);
+            }
+            List<String> successive = new ArrayList<>(varianti.size()*espansioni.length);
+            for (String variante : varianti) {
+                for (String espansione : espansioni) {
+                    successive.add(variante.isEmpty() ? espansione : variante + " " + espansione);
+                }
+            }
+            varianti = successive;
+        }
+        
+        return abbreviato ? varianti : List.of(piegato);
+    }
+    
+    /**
+     * Finds the different trigrams of a name, after removing accents and turning everything that isn't a letter into single spaces.
+     * The name is padded with spaces (two before, one after) so that the start and the end of the name have their own trigrams
+     * @param nome municipality name
+     * @return the trigrams, as numbers from 0 to 27^3-1 (space is 0, the letters 1-26), sorted and without repetitions
+     */
+    private static int[] trigrammi(CharSequence nome) {
+        
+        String piegato = Traslitterazione.piega(nome.toString()).toUpperCase();
+        
+        int[] simboli = new int[piegato.length()+3];
+        int numero = 1; //the first space of the padding (the second one is added by the loop or at the end)
+        boolean spazio = true; //the last symbol is a space
+        for (int i=0; i<piegato.length(); i++) {
+            char c = piegato.charAt(i);
+            if(c >= 'A' && c <= 'Z') {
+                if(spazio) {
+                    simboli[numero++] = 0;
+                }
+                simboli[numero++] = c-'A'+1;
+                spazio = false;
+            }
+            else {
+                spazio = true;
+            }
+        }
+        if(numero == 1) { //no letters
+            return new int[0];
+        }
+        simboli[numero++] = 0;
+        
+        int[] trigrammi = new int[numero-2];
+        for (int i=0; i<trigrammi.length; i++) {
+            trigrammi[i] = (simboli[i]*SIMBOLI + simboli[i+1])*SIMBOLI + simboli[i+2];
+        }
+        Arrays.sort(trigrammi);
+        
+        int diversi = 0;
+        for (int i=0; i<trigrammi.length; i++) {
+            if(i == 0 || trigrammi[i] != trigrammi[i-1]) {
+                trigrammi[diversi++] = trigrammi[i];
+            }
+        }
+        
+        return Arrays.copyOf(trigrammi, diversi);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Generates the single parts (segments) of a fiscal code, writing them directly in a char array instead of building temporary strings.
+ * Every method writes its segment at the given position of the array and allocates nothing, as long as the name and surname are formed by latin characters
+ * (names with other characters are normalized first, which needs a copy of the string).
+ * Positions of the segments in the code: surname 0-2, name 3-5, year 6-7, month 8, day and sex 9-10, municipality 11-14, control character 15.
+ * @author Pietro P.
+ */
+final class Segmenti {
+    
+    static final int COGNOME = 0; //position of the surname segment
+    static final int NOME = 3; //position of the name segment
+    static final int ANNO = 6; //position of the year segment
+    static final int MESE = 8; //position of the month segment
+    static final int GIORNO = 9; //position of the day and sex segment
+    static final int COMUNE = 11; //position of the municipality segment
+    static final int CONTROLLO = 15; //position of the control character
+    
+    static final String CODICEMESI = "ABCDEHLMPRST"; //the list of characters corresponding to each month (janauary: A, february: B, ...)
+    static final String OMOCODIA = "LMNPQRSTUV"; //letters that replace the digits (0: L, 1: M, ...) in the codes of people with the same code (omocodia)
+    
+    //array that contains the numerical values to use for characters in an odd position --> A/0 = 1, B/1 = 0, .... (even position is just 0 to 25)
+    static final int[] CHARDISPARI = {1,0,5,7,9,13,15,17,19,21,2,4,18,20,11,3,6,8,12,14,16,10,22,25,24,23};
+    
+    //values of every ASCII character in an odd and in an even position, for digits and letters of both cases (0 for everything else), built from CHARDISPARI
+    private static final int[] DISPARI = new int[128];
+    private static final int[] PARI = new int[128];
+    
+    //tells if every uppercase letter (A is 0, B is 1, ...) is a vowel, otherwise it's a consonant
+    private static final boolean[] VOCALI = {true,false,false,false,true,false,false,false,true,false,false,false,false,false,true,false,false,false,false,false,true,false,false,false,false,false};
+    
+    private Segmenti() {
+    }
+    
+    /**
+     * Writes the 3-character code of the surname: its consonants, then its vowels, then "X" until the 3 characters are filled
+     * @param cognome surname
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    static void scriviCognome(CharSequence cognome, char[] destinazione, int inizio) {
+        scriviLettere(cognome, false, false, destinazione, inizio);
+    }
+    
+    /**
+     * Writes the 3-character code of the name: if it has 4 or more consonants, the first, third and fourth consonant, otherwise the same as the surname
+     * @param nome name
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    static void scriviNome(CharSequence nome, char[] destinazione, int inizio) {
+        scriviLettere(nome, true, false, destinazione, inizio);
+    }
+    
+    /**
+     * Writes the last 2 digits of the birth year (tens and units)
+     * @param anno birth year
+     * @param destinazione array in which the digits are written
+     * @param inizio position of the first digit in the array
+     */
+    static void scriviAnno(int anno, char[] destinazione, int inizio) {
+        
+        destinazione[inizio] = (char)('0' + anno/10%10);
+        destinazione[inizio+1] = (char)('0' + anno%10);
+    }
+    
+    /**
+     * Writes the letter used to refer to the birth month
+     * @param mese birth month, from 1 to 12
+     * @param destinazione array in which the letter is written
+     * @param inizio position of the letter in the array
+     */
+    static void scriviMese(int mese, char[] destinazione, int inizio) {
+        destinazione[inizio] = CODICEMESI.charAt(mese-1);
+    }
+    
+    /**
+     * Writes the 2 digits that identify day of birth and sex: the day, with 40 added if the sex is female
+     * @param giorno birth day
+     * @param sesso sex (m, M, f, F)
+     * @param destinazione array in which the digits are written
+     * @param inizio position of the first digit in the array
+     */
+    static void scriviGiornoSesso(int giorno, char sesso, char[] destinazione, int inizio) {
+        
+        if(sesso=='f' || sesso=='F') { //if sex is female, 40 is added to the value of the day
+            giorno = giorno+40;
+        }
+        
+        destinazione[inizio] = (char)('0' + giorno/10); //days smaller than 10 start with a 0, to keep the segment 2 characters long
+        destinazione[inizio+1] = (char)('0' + giorno%10);
+    }
+    
+    /**
+     * Writes the 4-character municipality code
+     * @param codice municipality code, as found in the registry
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    static void scriviComune(String codice, char[] destinazione, int inizio) {
+        codice.getChars(0, 4, destinazione, inizio);
+    }
+    
+    /**
+     * Generates the control character from the first 15 characters of a fiscal code.
+     * The value of every character is read from the tables of odd and even positions, so the sum is 15 fixed steps without branches
+     * @param codice array containing the fiscal code, the 15 characters must be letters (uppercase or lowercase) or digits
+     * @param inizio position of the first character of the fiscal code in the array
+     * @return the control character
+     */
+    static char carattereControllo(char[] codice, int inizio) {
+        
+        //the remainder of the division of the total by 26 + "A" gives the control character (remainder 0 --> A, remainder 1 --> B, ...)
+        return (char)((sommaControllo(codice, inizio) % 26)+'A');
+    }
+    
+    /**
+     * Sums the values of the first 15 characters of a fiscal code, the control character is the remainder of the division by 26
+     * @param codice array containing the fiscal code, the 15 characters must be letters (uppercase or lowercase) or digits
+     * @param inizio position of the first character of the fiscal code in the array
+     * @return the sum of the values of the characters
+     */
+    static int sommaControllo(char[] codice, int inizio) {
+        
+        //position 0 is the first character, which in the algorithm (first done by humans and not machines) is in position 1, so an odd position
+        int somma = DISPARI[codice[inizio] & 0x7F] + PARI[codice[inizio+1] & 0x7F]
+                + DISPARI[codice[inizio+2] & 0x7F] + PARI[codice[inizio+3] & 0x7F]
+                + DISPARI[codice[inizio+4] & 0x7F] + PARI[codice[inizio+5] & 0x7F]
+                + DISPARI[codice[inizio+6] & 0x7F] + PARI[codice[inizio+7] & 0x7F]
+                + DISPARI[codice[inizio+8] & 0x7F] + PARI[codice[inizio+9] & 0x7F]
+                + DISPARI[codice[inizio+10] & 0x7F] + PARI[codice[inizio+11] & 0x7F]
+                + DISPARI[codice[inizio+12] & 0x7F] + PARI[codice[inizio+13] & 0x7F]
+                + DISPARI[codice[inizio+14] & 0x7F];
+        
+        return somma;
+    }
+    
+    /**
+     * Sums the values of a part of the first 15 characters of a fiscal code, like a single segment
+     * @param codice array containing the fiscal code
+     * @param inizio position of the first character of the fiscal code in the array
+     * @param da position in the code of the first character to sum
+     * @param a position in the code after the last character to sum
+     * @return the sum of the values of the characters
+     */
+    static int sommaControllo(char[] codice, int inizio, int da, int a) {
+        
+        int somma = 0;
+        for (int i=da; i<a; i++) {
+            somma += valoreControllo(codice[inizio+i], i);
+        }
+        
+        return somma;
+    }
+    
+    /**
+     * Gives the value that a character has in the sum of the control character
+     * @param c letter (uppercase or lowercase) or digit
+     * @param posizione position of the character in the code (0-14)
+     * @return the value of the character in that position
+     */
+    static int valoreControllo(char c, int posizione) {
+        return (posizione % 2 == 0) ? DISPARI[c & 0x7F] : PARI[c & 0x7F];
+    }
+    
+    /**
+     * Generates the control character from the first 15 characters of a fiscal code stored as ASCII bytes, see {@link #carattereControllo(char[], int)}
+     * @param codice array containing the fiscal code, the 15 characters must be letters (uppercase or lowercase) or digits
+     * @param inizio position of the first byte of the fiscal code in the array
+     * @return the control character
+     */
+    static char carattereControllo(byte[] codice, int inizio) {
+        
+        int somma = DISPARI[codice[inizio] & 0x7F] + PARI[codice[inizio+1] & 0x7F]
+                + DISPARI[codice[inizio+2] & 0x7F] + PARI[codice[inizio+3] & 0x7F]
+                + DISPARI[codice[inizio+4] & 0x7F] + PARI[codice[inizio+5] & 0x7F]
+                + DISPARI[codice[inizio+6] & 0x7F] + PARI[codice[inizio+7] & 0x7F]
+                + DISPARI[codice[inizio+8] & 0x7F] + PARI[codice[inizio+9] & 0x7F]
+                + DISPARI[codice[inizio+10] & 0x7F] + PARI[codice[inizio+11] & 0x7F]
+                + DISPARI[codice[inizio+12] & 0x7F] + PARI[codice[inizio+13] & 0x7F]
+                + DISPARI[codice[inizio+14] & 0x7F];
+        
+        return (char)((somma % 26)+'A');
+    }
+    
+    /**
+     * Generates the control character from the first 15 characters of a fiscal code stored as ASCII bytes (like a mapped file), without copying them,
+     * see {@link #carattereControllo(char[], int)}
+     * @param codice buffer containing the fiscal code, the 15 characters must be letters (uppercase or lowercase) or digits
+     * @param inizio position of the first byte of the fiscal code in the buffer
+     * @return the control character
+     */
+    static char carattereControllo(ByteBuffer codice, int inizio) {
+        
+        int somma = DISPARI[codice.get(inizio) & 0x7F] + PARI[codice.get(inizio+1) & 0x7F]
+                + DISPARI[codice.get(inizio+2) & 0x7F] + PARI[codice.get(inizio+3) & 0x7F]
+                + DISPARI[codice.get(inizio+4) & 0x7F] + PARI[codice.get(inizio+5) & 0x7F]
+                + DISPARI[codice.get(inizio+6) & 0x7F] + PARI[codice.get(inizio+7) & 0x7F]
+                + DISPARI[codice.get(inizio+8) & 0x7F] + PARI[codice.get(inizio+9) & 0x7F]
+                + DISPARI[codice.get(inizio+10) & 0x7F] + PARI[codice.get(inizio+11) & 0x7F]
+                + DISPARI[codice.get(inizio+12) & 0x7F] + PARI[codice.get(inizio+13) & 0x7F]
+                + DISPARI[codice.get(inizio+14) & 0x7F];
+        
+        return (char)((somma % 26)+'A');
+    }
+    
+    /**
+     * Writes the 3-character code of a name or surname, with a single pass on the string.
+     * Every character is converted with the transliteration table to its uppercase letters without accents and classified as consonant or vowel,
+     * and the first consonants and vowels are collected in the same loop, packed in a long (16 bits per letter), without any temporary string
+     * @param stringa name or surname
+     * @param nome true for the name (first, third and fourth consonant if there are at least 4), false for the surname
+     * @param normalizzata true if the string was already normalized, so characters outside of the table are just ignored
+     * @param destinazione array in which the code is written
+     * @param inizio position of the first character of the code in the array
+     */
+    private static void scriviLettere(CharSequence stringa, boolean nome, boolean normalizzata, char[] destinazione, int inizio) {
+        
+        long consonanti = 0; //first 4 consonants, the first one in the lowest 16 bits
+        long vocali = 0; //first 3 vowels, the first one in the lowest 16 bits
+        int numeroConsonanti = 0;
+        int numeroVocali = 0;
+        int consonantiUtili = nome ? 4 : 3; //after these, more consonants don't change anything
+        
+        for (int i=0; i<stringa.length() && (numeroConsonanti < consonantiUtili || numeroVocali < 3); i++) {
+            
+            char c = stringa.charAt(i);
+            
+            if(c >= Traslitterazione.LIMITE) {
+                if(!normalizzata) { //character not in the table: the string is normalized and the process restarts
+                    scriviLettere(Traslitterazione.piega(stringa.toString()), nome, true, destinazione, inizio);
+                    return;
+                }
+                continue; //still not a latin letter after the normalization, so it's ignored
+            }
+            
+            //every character becomes 0 (not a letter), 1 letter, or 2 letters (like "AE" or "SS")
+            for (int lettere = Traslitterazione.piega(c); lettere != 0; lettere >>>= 16) {
+                
+                char lettera = (char)lettere;
+                
+                if(VOCALI[lettera-'A']) {
+                    if(numeroVocali < 3) {
+                        vocali |= (long)lettera << (16*numeroVocali);
+                    }
+                    numeroVocali++;
+                }
+                else {
+                    if(numeroConsonanti < 4) {
+                        consonanti |= (long)lettera << (16*numeroConsonanti);
+                    }
+                    numeroConsonanti++;
+                }
+            }
+        }
+        
+        if(nome && numeroConsonanti >= 4) { //If the name has 4+ consonants, the first, thrid and fouth consonant get taken
+            destinazione[inizio] = (char)consonanti;
+            destinazione[inizio+1] = (char)(consonanti >>> 32);
+            destinazione[inizio+2] = (char)(consonanti >>> 48);
+            return;
+        }
+        
+        //otherwise the consonants, then the vowels, then "X" until the 3 characters are filled
+        for (int j=0; j<3; j++) {
+            if(numeroConsonanti > 0) {
+                destinazione[inizio+j] = (char)consonanti;
+                consonanti >>>= 16;
+                numeroConsonanti--;
+            }
+            else if(numeroVocali > 0) {
+                destinazione[inizio+j] = (char)vocali;
+                vocali >>>= 16;
+                numeroVocali--;
+            }
+            else {
+                destinazione[inizio+j] = 'X';
+            }
+        }
+    }
+    
+    /**
+     * Checks that the input string contains at least one alphabet character (an ASCII letter)
+     * @param stringa the string to check
+     * @return "true" if the string contains at least one alphabet char, otherwise "false"
+     */
+    static boolean hasCharsAlfabeto(CharSequence stringa) {
+        
+        for (int i=0; i<stringa.length(); i++) {
+            char c = stringa.charAt(i);
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    static {
+        for (int i=0; i<26; i++) { //digits count as the corresponding letters (0 = A, 1 = B, ...)
+            DISPARI['A'+i] = DISPARI['a'+i] = CHARDISPARI[i];
+            PARI['A'+i] = PARI['a'+i] = i;
+            if(i < 10) {
+                DISPARI['0'+i] = CHARDISPARI[i];
+                PARI['0'+i] = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+/**
+ * Removes accents and other diacritics from letters, using a precomputed table for Latin-1, Latin Extended-A and Latin Extended-B characters.
+ * The table also covers letters that the Unicode normalization doesn't decompose (like the polish "L with stroke", the danish "O with stroke",
+ * the german "sharp s" or the ligature "OE", common in the names of people born abroad), and that would otherwise be simply dropped.
+ * Only code points outside of the table go through {@link Normalizer}.
+ * @author Pietro P.
+ */
+final class Traslitterazione {
+    
+    /**
+     * First character that isn't in the table: from here on the characters are normalized with {@link Normalizer}
+     */
+    static final char LIMITE = 0x250;
+    
+    private static final char INIZIO = 0xC0; //first character of TABELLA, before it there are only ASCII letters and symbols
+    
+    //uppercase letters without diacritics corresponding to every character from U+00C0 to U+024F, 2 characters each:
+    //one letter followed by a space, two letters (like "AE" or "SS") or two spaces for characters that aren't letters
+    private static final String TABELLA = ""
+        + "A A A A A A AEC E E E E I I I I D N O O O O O   O U U U U Y THSS" //U+00C0
+        + "A A A A A A AEC E E E E I I I I D N O O O O O   O U U U U Y THY " //U+00E0
+        + "A A A A A A C C C C C C C C D D D D E E E E E E E E E E G G G G " //U+0100
+        + "G G G G H H H H I I I I I I I I I I IJIJJ J K K K L L L L L L L " //U+0120
+        + "L L L N N N N N N N N N O O O O O O OEOER R R R R R S S S S S S " //U+0140
+        + "S S T T T T T T U U U U U U U U U U U U W W Y Y Y Z Z Z Z Z Z S " //U+0160
+        + "B B B B       C C   D D D         F F G   HV  I K K L     N N O " //U+0180
+        + "O O OIOIP P           T T T T U U   V Y Y Z Z                   " //U+01A0
+        + "        DZDZDZLJLJLJNJNJNJA A I I O O U U U U U U U U U U   A A " //U+01C0
+        + "A A AEAEG G G G K K O O O O     J DZDZDZG G     N N A A AEAEO O " //U+01E0
+        + "A A A A E E E E I I I I O O O O R R R R U U U U S S T T     H H " //U+0200
+        + "N D OUOUZ Z A A E E O O O O O O O O Y Y L N T       A C C L T S " //U+0220
+        + "Z     B     E E J J   Q R R Y Y "; //U+0240
+    
+    private static final int[] PIEGATURE = new int[LIMITE]; //letters corresponding to every character: the first in the lowest 16 bits, the second (if present) in the highest 16 bits, 0 if it isn't a letter
+    private static final Pattern SEGNI = Pattern.compile("\\p{M}"); //diacritical marks left by the normalization
+    
+    private Traslitterazione() {
+    }
+    
+    /**
+     * Returns the uppercase letters without diacritics corresponding to a character
+     * @param c character, must be smaller than {@link #LIMITE}
+     * @return the first letter in the lowest 16 bits and the second one (only for characters like "AE" or "SS") in the highest 16 bits, or 0 if the character isn't a letter
+     */
+    static int piega(char c) {
+        return PIEGATURE[c];
+    }
+    
+    /**
+     * Substitutes accented letters with their non-accented counterpart.
+     * Plain ASCII strings are returned as they are, without any copy; all of the others are also converted to uppercase
+     * @param stringa the string from which accents have to be removed
+     * @return the string without accents
+     */
+    static String piega(String stringa) {
+        
+        int i = 0;
+        while(i < stringa.length() && stringa.charAt(i) < 128) {
+            i++;
+        }
+        if(i == stringa.length()) { //nothing to remove
+            return stringa;
+        }
+        
+        StringBuilder output = new StringBuilder(stringa.length()+4);
+        
+        for (i=0; i<stringa.length(); i++) {
+            
+            char c = stringa.charAt(i);
+            
+            if(c >= LIMITE) { //code point not in the table, it's normalized and its diacritical marks removed
+                int codePoint = stringa.codePointAt(i);
+                String carattere = new String(Character.toChars(codePoint)).toUpperCase();
+                output.append(SEGNI.matcher(Normalizer.normalize(carattere, Normalizer.Form.NFD)).replaceAll(""));
+                i += Character.charCount(codePoint)-1;
+            }
+            else if(PIEGATURE[c] == 0) { //not a letter (space, apostrophe, ...), it's left as it is
+                output.append(c);
+            }
+            else {
+                output.append((char)PIEGATURE[c]);
+                if(PIEGATURE[c] >>> 16 != 0) {
+                    output.append((char)(PIEGATURE[c] >>> 16));
+                }
+            }
+        }
+        
+        return output.toString();
+    }
+    
+    /**
+     * Substitutes accented letters with their non-accented counterpart, like {@link #piega(String)}.
+     * Plain ASCII text is returned as it is, without converting it to a string
+     * @param testo the text from which accents have to be removed
+     * @return the text without accents
+     */
+    static CharSequence piega(CharSequence testo) {
+        
+        for (int i=0; i<testo.length(); i++) {
+            if(testo.charAt(i) >= 128) {
+                return piega(testo.toString());
+            }
+        }
+        
+        return testo;
+    }
+    
+    static {
+        
+        for (char c='A'; c<='Z'; c++) {
+            PIEGATURE[c] = c;
+            PIEGATURE[c+32] = c; //lowercase letters
+        }
+        
+        for (char c=INIZIO; c<LIMITE; c++) {
+            char prima = TABELLA.charAt(2*(c-INIZIO));
+            char seconda = TABELLA.charAt(2*(c-INIZIO)+1);
+            if(prima != ' ') {
+                PIEGATURE[c] = prima | (seconda == ' ' ? 0 : seconda << 16);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2021 Pietro P.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package codicefiscale_en;
+
+/**
+ * Checks the control character of whole columns of fiscal codes stored as ASCII bytes, one code every 16 bytes.
+ * If the system property {@link #PROPRIETAVETTORIALE} is "true" and the optional vector module (CodiceFiscale-vettoriale.jar, Java 17+,
+ * run with "--add-modules jdk.incubator.vector") is in the classpath, many codes are checked with every instruction;
+ * otherwise, or if the Vector API isn't available at runtime, the scalar table-driven loop is used.
+ * The result is the same with both.
+ * @author Pietro P.
+ */
+public final class VerificaControllo {
+    
+    /**
+     * System property that must be set to "true" to use the vector module.
+     * It's off by default because with the incubator API of Java 17 the vector loop isn't faster than the scalar one
+     */
+    public static final String PROPRIETAVETTORIALE = "codicefiscale.vettoriale";
+    
+    private static final String CLASSEVETTORIALE = "codicefiscale_en.MotoreVettoriale"; //implementation in the optional module
+    
+    private static final Motore MOTORE = scegliMotore(); //implementation used by the whole process
+    
+    private VerificaControllo() {
+    }
+    
+    /**
+     * Checks the control character of the first "numero" codes of a column
+     * @param codici codes, the code in position i is in codici[16*i] ... codici[16*i+15]
+     * @param numero number of codes to check
+     * @param esiti if not null, for every code true if it's formed by uppercase letters and digits and its control character is correct
+     * @return number of correct codes
+     * @throws IllegalArgumentException if the arrays are too short
+     */
+    public static int verifica(byte[] codici, int numero, boolean[] esiti) {
+        return verifica(codici, 0, numero, esiti);
+    }
+    
+    /**
+     * Checks the control character of a part of a column of codes, from position "da" (included) to position "a" (excluded)
+     * @param codici codes, the code in position i is in codici[16*i] ... codici[16*i+15]
+     * @param da position of the first code to check
+     * @param a position after the last code to check
+     * @param esiti if not null, for every checked code true if it's formed by uppercase letters and digits and its control character is correct
+     * @return number of correct codes
+     * @throws IllegalArgumentException if the range isn't valid or the arrays are too short
+     */
+    public static int verifica(byte[] codici, int da, int a, boolean[] esiti) {
+        
+        if(da < 0 || da > a || codici.length < (long)a*CodiceFiscale.LUNGHEZZA || (esiti != null && esiti.length < a)) {
+            throw new IllegalArgumentException("Intervallo della colonna non valido.");
+        }
+        
+        return MOTORE.verifica(codici, da, a, esiti);
+    }
+    
+    /**
+     * Tells which implementation is used
+     * @return true if the codes are checked with the Vector API
+     */
+    public static boolean isVettoriale() {
+        return !(MOTORE instanceof Scalare);
+    }
+    
+    /**
+     * Loads the vector implementation if it's in the classpath and can run, otherwise uses the scalar one
+     * @return the implementation to use
+     */
+    private static Motore scegliMotore() {
+        
+        if(!Boolean.parseBoolean(System.getProperty(PROPRIETAVETTORIALE, "false"))) {
+            return new Scalare();
+        }
+        
+        try {
+            return (Motore)Class.forName(CLASSEVETTORIALE).getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError | RuntimeException e) { //module not in the classpath, Java older than 17, Vector API not enabled or vectors too small
+            return new Scalare();
+        }
+    }
+    
+    /**
+     * Implementation of the check of a column of codes, the range is already checked
+     */
+    interface Motore {
+        
+        /**
+         * Checks the codes from position "da" (included) to position "a" (excluded)
+         * @param codici codes, 16 bytes each
+         * @param da position of the first code to check
+         * @param a position after the last code to check
+         * @param esiti if not null, the result of every code
+         * @return number of correct codes
+         */
+        int verifica(byte[] codici, int da, int a, boolean[] esiti);
+    }
+    
+    /**
+     * Checks one code at a time, with the tables of {@link Segmenti#carattereControllo(byte[], int)}
+     */
+    static final class Scalare implements Motore {
+        
+        @Override
+        public int verifica(byte[] codici, int da, int a, boolean[] esiti) {
+            
+            int corretti = 0;
+            
+            for (int i=da; i<a; i++) {
+                boolean corretto = verificaCodice(codici, i*CodiceFiscale.LUNGHEZZA);
+                if(corretto) {
+                    corretti++;
+                }
+                if(esiti != null) {
+                    esiti[i] = corretto;
+                }
+            }
+            
+            return corretti;
+        }
+        
+        /**
+         * Checks a single code
+         * @param codici codes
+         * @param inizio position of the first byte of the code
+         * @return true if it's formed by uppercase letters and digits and its control character is correct
+         */
+        static boolean verificaCodice(byte[] codici, int inizio) {
+            
+            for (int i=0; i<Segmenti.CONTROLLO; i++) {
+                byte c = codici[inizio+i];
+                if(!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                    return false;
+                }
+            }
+            
+            return codici[inizio+Segmenti.CONTROLLO] == Segmenti.carattereControllo(codici, inizio);
+        }
+    }
+}
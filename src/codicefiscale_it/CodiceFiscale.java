@@ -16,10 +16,10 @@
  */
 package codicefiscale_it;
 
+import codicefiscale_en.RegistroComuni;
 import java.io.File;
 import java.text.Normalizer;
 import java.time.Year; 
-import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -377,39 +377,23 @@ public class CodiceFiscale {
     }
     
     /**
-     * Recupera da un file .csv il codice catastale del comune dato in input 
+     * Recupera il codice catastale del comune dato in input dal registro dei comuni, caricato in memoria una sola volta per processo
      * @param comune il comune passato in input
      * @param provincia la provincia passata in input (serve per distinguere comuni con nomi uguali)
-     * @param file l'elenco dei comuni italiani
-     * @return il codice catastale del comune
-     * @throws Exception se il file da cui leggere non è stato trovato, o se la provincia/comune inseriti non sono trovati nell'elenco
+     * @throws Exception se l'elenco dei comuni non è stato trovato, se la provincia/comune inseriti non sono trovati nell'elenco, o se il comune non esisteva alla data di nascita
+     * @throws Exception se l'elenco dei comuni non è stato trovato, o se la provincia/comune inseriti non sono trovati nell'elenco
      */
-    private String codiceComune(String comune, String provincia, File file) throws Exception {
+    private String codiceComune(String comune, String provincia) throws Exception {
         
-        comune = comune.toUpperCase(); //nel codice fiscale tutto è maiuscolo
-        comune = rimouviAccentate(comune);
+        //il registro ignora già maiuscole e lettere accentate, e cerca il comune che esisteva alla data di nascita
+        RegistroComuni registro = RegistroComuni.getIstanza();
+        String codice = registro.codiceComune(comune, provincia, anno, mese, giorno);
         
-        final String DELIMITATORE = ","; //delimitatore dei valori nel file .csv
-        Scanner input = new Scanner(file); //apertura di un file di testo
-        String[] linea = null; //vettore dove viene memorizzata la linea che si sta analizzando del file
-        boolean trovato=false; //verifica che il codice sia stato trovato
-        
-        while(input.hasNextLine()) { //il file viene letto fino alla fine
-            
-            linea = input.nextLine().split(DELIMITATORE); //legge una riga e la spezza nelle 3 parti: comune, provincia e codice catastale
-            
-            //se il comune e provincia della linea corrispondono a quelli passati in input, si esce dal ciclo
-            if(linea[0].equals(comune) && linea[1].equals(provincia)) {
-                trovato=true;
-                break;
-            }
-        }
-        
-        if(!trovato) { //se il comune non è stato trovato si manda un errore
-            throw new Exception("Comune/Provincia non trovati nell'elenco.");
+        if(codice == null) { //se il comune non è stato trovato si manda un errore, distinguendo i comuni che non esistevano alla data di nascita
+            throw new Exception(registro.cerca(comune, provincia) >= 0 ? "Comune non esistente alla data di nascita." : "Comune/Provincia non trovati nell'elenco.");
         }
         
-        return linea[2]; //si restituisce il codice catastale
+        return codice; //si restituisce il codice catastale
     }
     
     /**
@@ -468,7 +452,7 @@ public class CodiceFiscale {
             throw new Exception("Data inserita non esistente.");
         }
         
-        output = stringaCognome(cognome) + stringaNome(nome) + stringaAnnoNascita(anno) + charMeseNascita(mese) + stringaGiornoNascitaSesso(giorno, sesso) + codiceComune(comune, provincia, ELENCOCOMUNI);
+        output = stringaCognome(cognome) + stringaNome(nome) + stringaAnnoNascita(anno) + charMeseNascita(mese) + stringaGiornoNascitaSesso(giorno, sesso) + codiceComune(comune, provincia);
         output = output + carattereControllo(output); //aggiunta del carattere di controllo
         
         return output;
@@ -429,18 +429,19 @@ public class CodiceFiscaleUI extends javax.swing.JFrame {
     private void initTableComune() throws Exception {
         
         final String DELIMITATORE = ","; //delimitatore dei valori nel file .csv
-        Scanner input = new Scanner(CodiceFiscale.ELENCOCOMUNI); //apertura di un file di testo
         DefaultTableModel modello = (DefaultTableModel)tableComune.getModel(); //si recupera il modello della tabella con l'elenco dei comuni, per poter aggiungere righe
         String[] output = new String[1]; //contiene il testo da mettere nella riga della tabella su cui si sta operando (è un array perché il metodo addRow accetta solo array)
         String[] linea; //array utilizzato per formattare la stringa da inserire nella riga della tabella
 
-        while(input.hasNextLine()) { //il file viene letto fino alla fine
+        try(Scanner input = new Scanner(CodiceFiscale.ELENCOCOMUNI)) { //apertura di un file di testo, chiuso alla fine della lettura
+            while(input.hasNextLine()) { //il file viene letto fino alla fine
 
-            linea = input.nextLine().split(DELIMITATORE); //spezza la riga nelle 3 parti: comune, provincia e codice catastale
+                linea = input.nextLine().split(DELIMITATORE); //spezza la riga nelle 3 parti: comune, provincia e codice catastale
 
-            output[0] = linea[0] + ", " + linea[1]; //memeorizza solo comune e provincia, formattate adeguatamente
+                output[0] = linea[0] + ", " + linea[1]; //memeorizza solo comune e provincia, formattate adeguatamente
 
-            modello.addRow(output); //si aggiunge la riga alla tabella
+                modello.addRow(output); //si aggiunge la riga alla tabella
+            }
         }
         
         sorter = new TableRowSorter<>(tableComune.getModel()); //creazione oggetto TableRowSorter